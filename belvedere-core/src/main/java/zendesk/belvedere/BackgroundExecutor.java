@@ -0,0 +1,60 @@
+package zendesk.belvedere;
+
+import android.os.Process;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the default {@link java.util.concurrent.Executor}s used by {@link Belvedere}
+ * if the app doesn't provide its own.
+ * <p>
+ * Threads run with background priority and are stopped after being idle for a while,
+ * so an unused {@link Belvedere} instance doesn't hold on to them.
+ * </p>
+ */
+class BackgroundExecutor {
+
+    private static final long KEEP_ALIVE_SECONDS = 30L;
+    private static final String THREAD_NAME = "belvedere-%s-%d";
+
+    private BackgroundExecutor() {
+        // intentionally empty
+    }
+
+    /**
+     * Create a bounded pool of background threads.
+     *
+     * @param name    Name of the pool, used for naming its threads
+     * @param threads Maximum number of threads
+     * @return The {@link ExecutorService}
+     */
+    static ExecutorService create(final String name, int threads) {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+
+                    private final AtomicInteger count = new AtomicInteger(1);
+
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        final String threadName = String.format(Locale.US, THREAD_NAME, name, count.getAndIncrement());
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, threadName);
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
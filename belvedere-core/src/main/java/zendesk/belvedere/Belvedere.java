@@ -10,11 +10,15 @@ import android.util.Pair;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Media picker manager.
@@ -24,25 +28,45 @@ public class Belvedere {
 
     final static String LOG_TAG = "Belvedere";
     private static final String MIME_TYPE_IMAGE = "image";
+    private static final int DEFAULT_BACKGROUND_THREADS = 2;
+    private static final String INTENT_REGISTRY_FILE = "belvedere-intent-registry-v2";
 
     @SuppressLint("StaticFieldLeak")
     private static Belvedere instance;
 
     private final Context context;
 
+    private final int resolveConcurrency;
+    private final Executor executor;
+    private final Executor ioExecutor;
+
     private Storage storage;
+    private ResolveIndex resolveIndex;
     private IntentRegistry intentRegistry;
+    private Capabilities capabilities;
     private MediaSource mediaSource;
 
     Belvedere(Builder builder) {
         this.context = builder.context;
+        this.resolveConcurrency = builder.resolveConcurrency;
+        this.executor = builder.executor != null
+                ? builder.executor
+                : BackgroundExecutor.create("background", DEFAULT_BACKGROUND_THREADS);
+        this.ioExecutor = builder.ioExecutor != null
+                ? builder.ioExecutor
+                : BackgroundExecutor.create("io", resolveConcurrency);
 
         builder.logger.setLoggable(builder.debug);
         L.setLogger(builder.logger);
 
-        this.intentRegistry = new IntentRegistry();
-        this.storage = new Storage();
-        this.mediaSource = new MediaSource(context, storage, intentRegistry);
+        this.intentRegistry = new IntentRegistry(new File(ContextCompat.getNoBackupFilesDir(context), INTENT_REGISTRY_FILE), executor);
+        final DiskQuota diskQuota = new DiskQuota(Storage.getBelvedereDir(context), Storage.getBlobDir(context),
+                builder.maxCacheSize, executor, intentRegistry);
+        this.storage = new Storage(builder.contentAddressedStorage, diskQuota);
+        this.resolveIndex = new ResolveIndex(context.getCacheDir());
+        this.capabilities = Capabilities.get(context, executor);
+        this.mediaSource = new MediaSource(context, storage, resolveIndex, intentRegistry, capabilities, executor,
+                ioExecutor, resolveConcurrency);
 
         L.d(LOG_TAG, "Belvedere initialized");
     }
@@ -180,7 +204,27 @@ public class Belvedere {
     public void getFilesFromActivityOnResult(int requestCode, int resultCode, Intent data,
                                              @NonNull Callback<List<MediaResult>> callback,
                                              boolean resolveFiles) {
-        mediaSource.getFilesFromActivityOnResult(context, requestCode, resultCode, data, callback, resolveFiles);
+        getFilesFromActivityOnResult(requestCode, resultCode, data, callback, resolveFiles, MediaFilter.ACCEPT_ALL);
+    }
+
+    /**
+     * Parse data from {@link Activity#onActivityResult(int, int, Intent)}.
+     * <p>
+     * Selected files that don't pass the provided {@link MediaFilter} are dropped
+     * before they get copied into the internal cache. Pass a {@link ResolveCallback}
+     * to get notified about them.
+     *
+     * @param requestCode The requestCode provided by {@link Activity#onActivityResult(int, int, Intent)}
+     * @param resultCode The resultCode provided by {@link Activity#onActivityResult(int, int, Intent)}
+     * @param data The {@link Intent} provided by {@link Activity#onActivityResult(int, int, Intent)}
+     * @param callback {@link Callback} that will deliver a list of {@link MediaResult}
+     * @param resolveFiles Set to {@code true} if belvedere should resolve selected files
+     * @param filter The {@link MediaFilter} selected files have to pass
+     */
+    public void getFilesFromActivityOnResult(int requestCode, int resultCode, Intent data,
+                                             @NonNull Callback<List<MediaResult>> callback,
+                                             boolean resolveFiles, @NonNull MediaFilter filter) {
+        mediaSource.getFilesFromActivityOnResult(context, requestCode, resultCode, data, callback, resolveFiles, filter);
     }
 
     /**
@@ -199,6 +243,11 @@ public class Belvedere {
         final File file = storage.getFile(context, dir, fileName);
         L.d(LOG_TAG, String.format(Locale.US, "Get internal File: %s", file));
 
+        if (file != null) {
+            // the caller might write to the file, it must not share its bytes with other files
+            storage.detachFromBlob(file);
+        }
+
         final Uri uri;
 
         if (file != null && (uri = storage.getFileProviderUri(context, file)) != null) {
@@ -221,16 +270,27 @@ public class Belvedere {
 
     /**
      * Copy the list of provided {@link Uri} into the internal cache.
+     * <p>
+     * Pass a {@link ResolveCallback} to get every {@link MediaResult} as soon as
+     * its file was copied, instead of waiting for the whole list.
+     * <p>
+     * Media that was already copied into the same directory, and didn't change since,
+     * isn't copied again. {@link MediaResult#getCopyMode()} is {@link MediaResult#COPY_MODE_CACHED}
+     * in that case.
      *
      * @param uris The list of {@link Uri} to resolve
      * @param directory Name of directory for storing them
      * @param callback {@link Callback} that will deliver a list of {@link MediaResult}
+     * @return A {@link Cancelable} that stops the copies and removes incomplete files
      */
-    public void resolveUris(@NonNull List<Uri> uris, @NonNull String directory, @NonNull Callback<List<MediaResult>> callback) {
+    @NonNull
+    public Cancelable resolveUris(@NonNull List<Uri> uris, @NonNull String directory, @NonNull Callback<List<MediaResult>> callback) {
         if(uris != null && uris.size() > 0) {
-            ResolveUriTask.start(context, storage,  callback, uris, directory);
+            return ResolveUriTask.start(context, storage, resolveIndex, executor, ioExecutor, callback, uris, directory,
+                    MediaFilter.ACCEPT_ALL, resolveConcurrency);
         } else {
             callback.internalSuccess(new ArrayList<MediaResult>(0));
+            return callback;
         }
     }
 
@@ -259,12 +319,100 @@ public class Belvedere {
         storage.revokePermissionsFromUri(context, uri, permissions);
     }
 
+    /**
+     * {@link Executor} for background work, like querying metadata or loading the image stream.
+     */
+    Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * {@link Executor} for copying files.
+     */
+    Executor getIoExecutor() {
+        return ioExecutor;
+    }
+
+    /**
+     * Cached {@link android.content.pm.PackageManager} answers, e.g. whether an app is installed.
+     */
+    Capabilities getCapabilities() {
+        return capabilities;
+    }
+
     /**
      * Clear the internal Belvedere cache.
+     * <p>
+     * Returns immediately, the files are deleted in the background.
      */
     public void clearStorage() {
-        L.d(LOG_TAG, "Clear Belvedere cache");
-        storage.clearStorage(context);
+        clearStorage(null, PurgeTask.ALL_FILES, null);
+    }
+
+    /**
+     * Clear the internal Belvedere cache.
+     * <p>
+     * Returns immediately, the files are deleted in the background.
+     *
+     * @param callback {@link Callback} that gets the number of deleted files
+     * @return A {@link Cancelable} that stops deleting files
+     */
+    @NonNull
+    public Cancelable clearStorage(@NonNull Callback<Integer> callback) {
+        return clearStorage(null, PurgeTask.ALL_FILES, callback);
+    }
+
+    /**
+     * Clear a directory of the internal Belvedere cache, as passed to
+     * {@link #resolveUris(List, String, Callback)} or {@link #getFile(String, String)}.
+     * <p>
+     * Returns immediately, the files are deleted in the background.
+     *
+     * @param directory Name of the directory
+     * @param callback {@link Callback} that gets the number of deleted files
+     * @return A {@link Cancelable} that stops deleting files
+     */
+    @NonNull
+    public Cancelable clearStorage(@NonNull String directory, @NonNull Callback<Integer> callback) {
+        if (TextUtils.isEmpty(directory)) {
+            throw new IllegalArgumentException("Directory must not be empty.");
+        }
+        return clearStorage(directory, PurgeTask.ALL_FILES, callback);
+    }
+
+    /**
+     * Delete all files from the internal Belvedere cache that weren't modified
+     * within the provided time.
+     * <p>
+     * Returns immediately, the files are deleted in the background.
+     *
+     * @param maxAge Files older than this are deleted
+     * @param unit {@link TimeUnit} of {@code maxAge}
+     * @param callback {@link Callback} that gets the number of deleted files
+     * @return A {@link Cancelable} that stops deleting files
+     */
+    @NonNull
+    public Cancelable clearStorage(long maxAge, @NonNull TimeUnit unit, @NonNull Callback<Integer> callback) {
+        if (maxAge <= 0) {
+            throw new IllegalArgumentException("Max age must be positive.");
+        }
+        return clearStorage(null, unit.toMillis(maxAge), callback);
+    }
+
+    private Cancelable clearStorage(final String directory, final long maxAge, final Callback<Integer> callback) {
+        L.d(LOG_TAG, String.format(Locale.US, "Clear Belvedere cache - Directory: %s - Max age: %d", directory, maxAge));
+
+        final List<File> roots;
+        if (maxAge == PurgeTask.ALL_FILES) {
+            if (TextUtils.isEmpty(directory)) {
+                resolveIndex.clear();
+            }
+            roots = storage.moveToTrash(context, directory);
+        } else {
+            roots = Collections.singletonList(Storage.getBelvedereDir(context));
+        }
+
+        return PurgeTask.start(storage, roots, maxAge, executor, callback);
     }
 
     /**
@@ -280,14 +428,26 @@ public class Belvedere {
      */
     public static class Builder {
 
+        private static final int DEFAULT_RESOLVE_CONCURRENCY = 4;
+
         Context context;
         L.Logger logger;
         boolean debug;
+        int resolveConcurrency;
+        boolean contentAddressedStorage;
+        Executor executor;
+        Executor ioExecutor;
+        long maxCacheSize;
 
         public Builder(Context context) {
             this.context = context.getApplicationContext();
             this.logger = new L.DefaultLogger();
             this.debug = false;
+            this.resolveConcurrency = DEFAULT_RESOLVE_CONCURRENCY;
+            this.contentAddressedStorage = false;
+            this.executor = null;
+            this.ioExecutor = null;
+            this.maxCacheSize = DiskQuota.UNLIMITED;
         }
 
         /**
@@ -306,6 +466,77 @@ public class Belvedere {
             return this;
         }
 
+        /**
+         * Set the maximum number of files that are copied into the internal cache
+         * at the same time, when resolving selected files.
+         *
+         * @param resolveConcurrency number of parallel copies, has to be at least 1
+         */
+        public Builder resolveConcurrency(int resolveConcurrency) {
+            if (resolveConcurrency < 1) {
+                throw new IllegalArgumentException("Resolve concurrency must be at least 1.");
+            }
+            this.resolveConcurrency = resolveConcurrency;
+            return this;
+        }
+
+        /**
+         * Provide the {@link Executor} that runs Belvedere's background work, like
+         * querying the metadata of selected files or loading the image stream.
+         * <p>
+         * By default Belvedere uses its own small pool of background priority threads.
+         * </p>
+         */
+        public Builder executor(@NonNull Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Provide the {@link Executor} that copies selected files into the internal cache.
+         * <p>
+         * Every batch of files occupies up to {@link #resolveConcurrency(int)} tasks on this
+         * {@link Executor}. By default Belvedere uses its own pool of background priority threads,
+         * sized to the resolve concurrency.
+         * </p>
+         */
+        public Builder ioExecutor(@NonNull Executor ioExecutor) {
+            this.ioExecutor = ioExecutor;
+            return this;
+        }
+
+        /**
+         * Limit the size of Belvedere's internal cache. Unlimited by default.
+         * <p>
+         * After a file was written into the cache, the least recently used files are
+         * deleted in the background until the cache fits into the limit again. The
+         * output of a pending camera request is never deleted.
+         * </p>
+         *
+         * @param maxCacheSize maximum size of the cache in bytes, has to be at least 1
+         */
+        public Builder maxCacheSize(long maxCacheSize) {
+            if (maxCacheSize < 1) {
+                throw new IllegalArgumentException("Max cache size must be at least 1 byte.");
+            }
+            this.maxCacheSize = maxCacheSize;
+            return this;
+        }
+
+        /**
+         * Enable/disable content addressed storage. Disabled by default.
+         * <p>
+         * If enabled, the same media selected through different {@link Uri}s
+         * is only stored once in the internal cache. Files with the same content
+         * are hard links to the same bytes, each of them keeps its own name.
+         * Requires Android 5.0, ignored on older devices.
+         * </p>
+         */
+        public Builder contentAddressedStorage(boolean contentAddressedStorage) {
+            this.contentAddressedStorage = contentAddressedStorage;
+            return this;
+        }
+
         /**
          * Create a custom instance of {@link Belvedere}
          */
@@ -1,12 +1,22 @@
 package zendesk.belvedere;
 
+import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.net.Uri;
 import android.util.Pair;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * Utility methods for {@link Bitmap}
@@ -14,17 +24,165 @@ import java.io.File;
 @SuppressWarnings("WeakerAccess")
 public class BitmapUtils {
 
+    private static final int UNKNOWN_DIMENSION = -1;
+
     /**
      * Gets the dimension of an image file.
+     * <p>
+     * Only the header of the image is read. The dimensions are the ones the image is
+     * encoded with, its EXIF orientation isn't applied.
+     * </p>
      *
      * @param file The image file
-     * @return The width and the height of an image file.
+     * @return The width and the height of an image file, {@code -1} if they are unknown
      */
     @SuppressWarnings("WeakerAccess")
     public static Pair<Integer, Integer> getImageDimensions(@NonNull File file) {
+        final ImageHeader header = parseHeader(file);
+        if (header != null) {
+            return Pair.create(header.getWidth(), header.getHeight());
+        }
+
         final BitmapFactory.Options options = new BitmapFactory.Options();
         options.inJustDecodeBounds = true;
-        BitmapFactory.decodeFile(file.getAbsolutePath(), options); // I/O on the main thread but only takes ~0.5ms
+        BitmapFactory.decodeFile(file.getAbsolutePath(), options);
         return Pair.create(options.outWidth, options.outHeight);
     }
+
+    /**
+     * Gets the dimension of the image behind an {@link Uri}.
+     * <p>
+     * Only the header of the image is read. The dimensions are the ones the image is
+     * encoded with, its EXIF orientation isn't applied.
+     * </p>
+     *
+     * @param context A valid {@link Context}
+     * @param uri     The {@link Uri} of the image
+     * @return The width and the height of the image, {@code -1} if they are unknown
+     */
+    @SuppressWarnings("WeakerAccess")
+    @WorkerThread
+    public static Pair<Integer, Integer> getImageDimensions(@NonNull Context context, @NonNull Uri uri) {
+        final ImageHeader header = parseHeader(context, uri);
+        if (header != null) {
+            return Pair.create(header.getWidth(), header.getHeight());
+        }
+
+        InputStream inputStream = null;
+        try {
+            inputStream = context.getContentResolver().openInputStream(uri);
+            if (inputStream != null) {
+                final BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inJustDecodeBounds = true;
+                BitmapFactory.decodeStream(inputStream, null, options);
+                return Pair.create(options.outWidth, options.outHeight);
+            }
+        } catch (IOException e) {
+            L.w(Belvedere.LOG_TAG, String.format(Locale.US, "Unable to read image dimensions: %s", uri));
+        } catch (SecurityException e) {
+            L.w(Belvedere.LOG_TAG, String.format(Locale.US, "Unable to read image dimensions, no access: %s", uri));
+        } finally {
+            close(inputStream);
+        }
+
+        return Pair.create(UNKNOWN_DIMENSION, UNKNOWN_DIMENSION);
+    }
+
+    /**
+     * Gets the dimensions of a list of images.
+     *
+     * @param context A valid {@link Context}
+     * @param uris    The {@link Uri}s of the images
+     * @return The width and the height of every image, in the order of the provided {@link Uri}s
+     */
+    @SuppressWarnings("WeakerAccess")
+    @WorkerThread
+    public static List<Pair<Integer, Integer>> getImageDimensions(@NonNull Context context, @NonNull List<Uri> uris) {
+        final List<Pair<Integer, Integer>> dimensions = new ArrayList<>(uris.size());
+        for (Uri uri : uris) {
+            dimensions.add(getImageDimensions(context, uri));
+        }
+        return dimensions;
+    }
+
+    /**
+     * Gets the dimensions of a list of images in the background.
+     *
+     * @param context  A valid {@link Context}
+     * @param uris     The {@link Uri}s of the images
+     * @param callback {@link Callback} that gets the width and the height of every image, in the
+     *                 order of the provided {@link Uri}s
+     * @return A {@link Cancelable} that stops reading the images
+     */
+    @SuppressWarnings("WeakerAccess")
+    public static Cancelable getImageDimensions(@NonNull Context context, @NonNull List<Uri> uris,
+                                                @NonNull final Callback<List<Pair<Integer, Integer>>> callback) {
+        final Context appContext = context.getApplicationContext();
+        final List<Uri> pending = new ArrayList<>(uris);
+
+        Belvedere.from(appContext).getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Pair<Integer, Integer>> dimensions = new ArrayList<>(pending.size());
+                for (Uri uri : pending) {
+                    if (callback.isCanceled()) {
+                        return;
+                    }
+                    dimensions.add(getImageDimensions(appContext, uri));
+                }
+                callback.internalSuccess(dimensions);
+            }
+        });
+
+        return callback;
+    }
+
+    /**
+     * Parse the header of an image file.
+     *
+     * @return The {@link ImageHeader} or {@code null} if the file can't be read or the format isn't supported
+     */
+    static ImageHeader parseHeader(File file) {
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            return ImageHeader.parse(inputStream);
+        } catch (IOException e) {
+            L.d(Belvedere.LOG_TAG, String.format(Locale.US, "Unable to parse image header: %s", file));
+            return null;
+        } finally {
+            close(inputStream);
+        }
+    }
+
+    /**
+     * Parse the header of the image behind an {@link Uri}.
+     *
+     * @return The {@link ImageHeader} or {@code null} if the image can't be read or the format isn't supported
+     */
+    static ImageHeader parseHeader(Context context, Uri uri) {
+        InputStream inputStream = null;
+        try {
+            inputStream = context.getContentResolver().openInputStream(uri);
+            return inputStream != null ? ImageHeader.parse(inputStream) : null;
+        } catch (IOException e) {
+            L.d(Belvedere.LOG_TAG, String.format(Locale.US, "Unable to parse image header: %s", uri));
+            return null;
+        } catch (SecurityException e) {
+            L.d(Belvedere.LOG_TAG, String.format(Locale.US, "Unable to parse image header, no access: %s", uri));
+            return null;
+        } finally {
+            close(inputStream);
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // intentionally empty
+            }
+        }
+    }
 }
@@ -18,9 +18,9 @@ import androidx.fragment.app.Fragment;
  *
  * @param <E> The result type.
  */
-public abstract class Callback<E> {
+public abstract class Callback<E> implements Cancelable {
 
-    private boolean canceled = false;
+    private volatile boolean canceled = false;
 
     public Callback(){
         // Intentionally empty
@@ -28,14 +28,24 @@ public abstract class Callback<E> {
 
     /**
      * Cancel this callback. {@link #success(Object)} won't be called.
+     * <p>
+     *     Files that are still being copied into the internal cache for this
+     *     callback are discarded.
+     * </p>
      */
+    @Override
     public void cancel(){
         this.canceled = true;
     }
 
+    @Override
+    public boolean isCanceled(){
+        return canceled;
+    }
+
     void internalSuccess(final E result){
         if(!canceled){
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
+            post(new Runnable() {
                 @Override
                 public void run() {
                     Callback.this.success(result);
@@ -44,6 +54,10 @@ public abstract class Callback<E> {
         }
     }
 
+    void post(Runnable runnable){
+        new Handler(Looper.getMainLooper()).post(runnable);
+    }
+
     /**
      * Method used to deliver results.
      * <p>
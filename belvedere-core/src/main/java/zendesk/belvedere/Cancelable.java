@@ -0,0 +1,19 @@
+package zendesk.belvedere;
+
+/**
+ * Handle for work that Belvedere runs in the background.
+ */
+public interface Cancelable {
+
+    /**
+     * Stop the work. Results won't be delivered afterwards.
+     */
+    void cancel();
+
+    /**
+     * Check if the work was canceled.
+     *
+     * @return {@code true} if {@link #cancel()} was called, {@code false} if not
+     */
+    boolean isCanceled();
+}
@@ -0,0 +1,204 @@
+package zendesk.belvedere;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.provider.MediaStore;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Caches what the device and the installed apps are capable of.
+ * <p>
+ * Asking the {@link PackageManager} is a binder call, which takes a few milliseconds on
+ * low-end devices and usually happens on the main thread while a picker opens. The answers
+ * are fetched once on the background {@link Executor} and kept until an app is installed,
+ * removed or changed. A capability that's requested before it was fetched is probed
+ * synchronously.
+ * </p>
+ * <p>
+ * The answers are the same for the whole process, so there's a single instance, shared
+ * by every {@link Belvedere}. Its receiver is registered once and lives as long as the process.
+ * </p>
+ */
+class Capabilities {
+
+    private static final String KEY_CAMERA = "camera";
+    private static final String KEY_DOCUMENT_APP = "document-app";
+    private static final String KEY_APP = "app:%s";
+
+    private static Capabilities instance;
+
+    private final Context context;
+    private final Executor executor;
+    private final Map<String, Boolean> cache;
+    private final AtomicInteger generation;
+
+    /**
+     * Get the {@link Capabilities} of the process. The first call registers the receiver for
+     * package changes and starts fetching.
+     *
+     * @param context  A valid application {@link Context}
+     * @param executor {@link Executor} that fetches the capabilities
+     */
+    static Capabilities get(Context context, Executor executor) {
+        synchronized (Capabilities.class) {
+            if (instance == null) {
+                instance = new Capabilities(context, executor);
+                instance.register();
+            }
+            return instance;
+        }
+    }
+
+    /**
+     * @param context  A valid application {@link Context}
+     * @param executor {@link Executor} that fetches the capabilities
+     */
+    Capabilities(Context context, Executor executor) {
+        this.context = context;
+        this.executor = executor;
+        this.cache = new ConcurrentHashMap<>();
+        this.generation = new AtomicInteger(0);
+    }
+
+    /**
+     * Start listening for package changes and fetch the capabilities in the background.
+     */
+    void register() {
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                L.d(Belvedere.LOG_TAG, String.format(Locale.US, "Package changed, invalidating capabilities - Action: %s", intent.getAction()));
+                invalidate();
+                prefetch();
+            }
+        }, filter);
+
+        prefetch();
+    }
+
+    /**
+     * Fetch the capabilities that every picker needs in the background.
+     */
+    void prefetch() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                hasCamera();
+                hasDocumentApp();
+            }
+        });
+    }
+
+    /**
+     * Fetch whether an app is available in the background.
+     *
+     * @param packageName The package name of the app
+     */
+    void prefetchApp(final String packageName) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                isAppAvailable(packageName);
+            }
+        });
+    }
+
+    /**
+     * Forget all capabilities, the next request fetches them again.
+     */
+    void invalidate() {
+        generation.incrementAndGet();
+        cache.clear();
+    }
+
+    /**
+     * @return {@code true} if the device has a camera and an app that's able to take pictures
+     */
+    boolean hasCamera() {
+        final int generation = this.generation.get();
+        final Boolean cached = cache.get(KEY_CAMERA);
+        if (cached != null) {
+            return cached;
+        }
+
+        // ask the system if there is a camera (front, back)
+        final PackageManager packageManager = context.getPackageManager();
+        final boolean hasCamera = packageManager.hasSystemFeature(PackageManager.FEATURE_CAMERA)
+                || packageManager.hasSystemFeature(PackageManager.FEATURE_CAMERA_FRONT);
+
+        final boolean hasCameraApp = isIntentResolvable(new Intent(MediaStore.ACTION_IMAGE_CAPTURE));
+
+        L.d(Belvedere.LOG_TAG, String.format(Locale.US, "Camera present: %b, Camera App present: %b", hasCamera, hasCameraApp));
+
+        return put(KEY_CAMERA, hasCamera && hasCameraApp, generation);
+    }
+
+    /**
+     * @return {@code true} if an app is installed that is able to provide documents
+     */
+    boolean hasDocumentApp() {
+        final int generation = this.generation.get();
+        final Boolean cached = cache.get(KEY_DOCUMENT_APP);
+        if (cached != null) {
+            return cached;
+        }
+
+        final Intent intent = MediaSource.getDocumentAndroidIntent("*/*", false, new ArrayList<String>());
+        return put(KEY_DOCUMENT_APP, isIntentResolvable(intent), generation);
+    }
+
+    /**
+     * @param packageName The package name of the app
+     * @return {@code true} if the app is installed and enabled
+     */
+    boolean isAppAvailable(String packageName) {
+        final int generation = this.generation.get();
+        final String key = String.format(Locale.US, KEY_APP, packageName);
+        final Boolean cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        boolean available;
+        try {
+            available = context.getPackageManager().getApplicationInfo(packageName, PackageManager.GET_META_DATA).enabled;
+        } catch (PackageManager.NameNotFoundException e) {
+            available = false;
+        }
+
+        return put(key, available, generation);
+    }
+
+    /**
+     * An answer that was fetched while the packages changed might be outdated, so
+     * it's handed out but not cached.
+     */
+    private boolean put(String key, boolean value, int generation) {
+        if (this.generation.get() == generation) {
+            cache.put(key, value);
+            if (this.generation.get() != generation) {
+                cache.remove(key);
+            }
+        }
+        return value;
+    }
+
+    private boolean isIntentResolvable(Intent intent) {
+        return !context.getPackageManager().queryIntentActivities(intent, 0).isEmpty();
+    }
+}
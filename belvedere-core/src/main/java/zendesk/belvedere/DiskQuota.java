@@ -0,0 +1,366 @@
+package zendesk.belvedere;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the size of the Belvedere cache below a configurable limit.
+ * <p>
+ * Files in the cache are tracked in least-recently-used order. After every write a trim is
+ * scheduled on the background {@link Executor}, which deletes the least recently used files
+ * until the cache fits into the quota again. Files that are still referenced by a pending
+ * request in the {@link IntentRegistry}, e.g. the output of the camera, are never evicted.
+ * </p>
+ * <p>
+ * The files that are already on disk are picked up on the first trim, ordered by their
+ * last modified date. Temporary files of copies and links that are still in progress are
+ * left out.
+ * </p>
+ * <p>
+ * Files that share their bytes through a content addressed blob are hard links to the same
+ * inode, their bytes are only counted once.
+ * </p>
+ */
+class DiskQuota {
+
+    static final long UNLIMITED = -1L;
+
+    private static final long NO_INODE = -1L;
+
+    private final File rootDir;
+    private final File blobDir;
+    private final long maxBytes;
+    private final Executor executor;
+    private final IntentRegistry intentRegistry;
+
+    private final LinkedHashMap<String, Entry> files;
+    private final Map<Long, Integer> inodes;
+    private final AtomicBoolean trimScheduled;
+
+    private long totalBytes;
+    private boolean loaded;
+
+    /**
+     * @param rootDir        Root of the Belvedere cache
+     * @param blobDir        Directory of the content addressed blobs, not counted on its own
+     * @param maxBytes       Maximum size of the cache in bytes or {@link #UNLIMITED}
+     * @param executor       {@link Executor} that runs the trims
+     * @param intentRegistry {@link IntentRegistry} that protects files of pending requests
+     */
+    DiskQuota(File rootDir, File blobDir, long maxBytes, Executor executor, IntentRegistry intentRegistry) {
+        this.rootDir = rootDir;
+        this.blobDir = blobDir;
+        this.maxBytes = maxBytes;
+        this.executor = executor;
+        this.intentRegistry = intentRegistry;
+        this.files = new LinkedHashMap<>(16, 0.75f, true);
+        this.inodes = new HashMap<>();
+        this.trimScheduled = new AtomicBoolean(false);
+        this.totalBytes = 0L;
+        this.loaded = false;
+    }
+
+    boolean isEnabled() {
+        return maxBytes != UNLIMITED;
+    }
+
+    /**
+     * A {@link File} in the cache was written. Marks it as the most recently used one and
+     * schedules a trim.
+     */
+    void onFileWritten(File file) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        final long inode = getInode(file);
+
+        synchronized (files) {
+            put(file.getAbsolutePath(), file.length(), inode);
+        }
+
+        scheduleTrim();
+    }
+
+    /**
+     * A {@link File} in the cache is about to be handed out again. Marks it as the most recently used one.
+     *
+     * @return {@code false} if the file was evicted in the meantime and can't be handed out
+     */
+    boolean onFileAccessed(File file) {
+        if (!isEnabled()) {
+            return file.isFile();
+        }
+
+        synchronized (files) {
+            files.get(file.getAbsolutePath());
+            return file.isFile();
+        }
+    }
+
+    /**
+     * A {@link File} in the cache is about to be rewritten or deleted, stop tracking it.
+     */
+    void onFileRemoved(File file) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        synchronized (files) {
+            final Entry entry = files.remove(file.getAbsolutePath());
+            if (entry != null) {
+                release(entry);
+            }
+        }
+    }
+
+    /**
+     * A directory in the cache was removed, stop tracking the files in it.
+     */
+    void onDirectoryRemoved(File dir) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        final String prefix = dir.getAbsolutePath() + File.separator;
+
+        synchronized (files) {
+            final Iterator<Map.Entry<String, Entry>> iterator = files.entrySet().iterator();
+            while (iterator.hasNext()) {
+                final Map.Entry<String, Entry> entry = iterator.next();
+                if (entry.getKey().startsWith(prefix)) {
+                    iterator.remove();
+                    release(entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Forget about all tracked files, after the cache was cleared.
+     */
+    void clear() {
+        synchronized (files) {
+            files.clear();
+            inodes.clear();
+            totalBytes = 0L;
+        }
+    }
+
+    private void scheduleTrim() {
+        if (trimScheduled.compareAndSet(false, true)) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    trimScheduled.set(false);
+                    trim();
+                }
+            });
+        }
+    }
+
+    /**
+     * Delete the least recently used files until the cache fits into the quota.
+     * <p>
+     * Files are deleted while the tracked files are locked, so that a file can't be
+     * written or handed out again between being picked and being deleted.
+     * </p>
+     */
+    void trim() {
+        final List<File> evicted = new ArrayList<>();
+        final long cacheSize;
+
+        synchronized (files) {
+            if (!loaded) {
+                load();
+            }
+
+            final Iterator<Map.Entry<String, Entry>> iterator = files.entrySet().iterator();
+            while (totalBytes > maxBytes && iterator.hasNext()) {
+                final Map.Entry<String, Entry> entry = iterator.next();
+                final File file = new File(entry.getKey());
+
+                if (intentRegistry.isPending(file)) {
+                    continue;
+                }
+
+                iterator.remove();
+                release(entry.getValue());
+                deleteFile(file);
+                evicted.add(file);
+            }
+
+            cacheSize = totalBytes;
+        }
+
+        if (evicted.isEmpty()) {
+            return;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            deleteUnreferencedBlobs();
+        }
+
+        L.d(Belvedere.LOG_TAG, String.format(Locale.US, "Disk quota exceeded, evicted %d files - Cache size: %d - Quota: %d",
+                evicted.size(), cacheSize, maxBytes));
+    }
+
+    private void put(String path, long size, long inode) {
+        final Entry entry = new Entry(size, inode);
+        final Entry oldEntry = files.put(path, entry);
+        if (oldEntry != null) {
+            release(oldEntry);
+        }
+
+        if (inode == NO_INODE) {
+            totalBytes += size;
+            return;
+        }
+
+        final Integer links = inodes.get(inode);
+        inodes.put(inode, links != null ? links + 1 : 1);
+        if (links == null) {
+            totalBytes += size;
+        }
+    }
+
+    /**
+     * A tracked path is gone. Its bytes are only freed if no other tracked path
+     * links to the same inode.
+     */
+    private void release(Entry entry) {
+        if (entry.inode == NO_INODE) {
+            totalBytes -= entry.size;
+            return;
+        }
+
+        final Integer links = inodes.get(entry.inode);
+        if (links == null || links <= 1) {
+            inodes.remove(entry.inode);
+            totalBytes -= entry.size;
+        } else {
+            inodes.put(entry.inode, links - 1);
+        }
+    }
+
+    private void load() {
+        loaded = true;
+
+        final List<File> existing = new ArrayList<>();
+        collectFiles(rootDir, existing);
+
+        Collections.sort(existing, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                final long l = lhs.lastModified();
+                final long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+
+        // files written since the start are more recent than everything on disk
+        final Map<String, Entry> tracked = new LinkedHashMap<>(files);
+        files.clear();
+        inodes.clear();
+        totalBytes = 0L;
+
+        for (File file : existing) {
+            final String path = file.getAbsolutePath();
+            if (!tracked.containsKey(path)) {
+                put(path, file.length(), getInode(file));
+            }
+        }
+
+        for (Map.Entry<String, Entry> entry : tracked.entrySet()) {
+            put(entry.getKey(), entry.getValue().size, entry.getValue().inode);
+        }
+    }
+
+    private void collectFiles(File dir, List<File> result) {
+        final File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+
+        for (File child : children) {
+            if (child.isDirectory()) {
+                if (!child.equals(blobDir)) {
+                    collectFiles(child, result);
+                }
+            } else if (!Storage.isTemporaryFile(child)) {
+                result.add(child);
+            }
+        }
+    }
+
+    /**
+     * Blobs only hold on to their bytes as long as files in the cache link to them.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void deleteUnreferencedBlobs() {
+        final File[] blobs = blobDir.listFiles();
+        if (blobs == null) {
+            return;
+        }
+
+        for (File blob : blobs) {
+            try {
+                if (Os.stat(blob.getAbsolutePath()).st_nlink <= 1) {
+                    deleteFile(blob);
+                }
+            } catch (ErrnoException e) {
+                L.w(Belvedere.LOG_TAG, String.format(Locale.US, "Unable to stat blob: %s", blob));
+            }
+        }
+    }
+
+    /**
+     * Get the inode of a {@link File}, to find the files that are linked to the same blob.
+     *
+     * @return The inode or {@link #NO_INODE} if it's unknown
+     */
+    private static long getInode(File file) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return NO_INODE;
+        }
+
+        try {
+            return Os.stat(file.getAbsolutePath()).st_ino;
+        } catch (ErrnoException e) {
+            return NO_INODE;
+        }
+    }
+
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private static void deleteFile(File file) {
+        if (file.exists()) {
+            file.delete();
+        }
+    }
+
+    private static class Entry {
+
+        private final long size;
+        private final long inode;
+
+        Entry(long size, long inode) {
+            this.size = size;
+            this.inode = inode;
+        }
+    }
+}
@@ -0,0 +1,467 @@
+package zendesk.belvedere;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Dimensions and orientation of an image, parsed from the first bytes of its file.
+ * <p>
+ * Supported are JPEG (SOF and EXIF orientation), PNG (IHDR), GIF, WebP (VP8, VP8L and VP8X)
+ * and HEIF (ispe and irot). Only the headers are read, usually a few KB. Segments that
+ * don't matter, e.g. embedded thumbnails, are skipped.
+ * </p>
+ */
+class ImageHeader {
+
+    private static final int MAGIC_SIZE = 12;
+    private static final int MAX_BOX_SIZE = 64 * 1024;
+    private static final int MAX_EXIF_SIZE = 4 * 1024;
+
+    private static final int EXIF_TAG_ORIENTATION = 0x0112;
+
+    private final int width;
+    private final int height;
+    private final int rotation;
+
+    private ImageHeader(int width, int height, int rotation) {
+        this.width = width;
+        this.height = height;
+        this.rotation = rotation;
+    }
+
+    /**
+     * Parse the header of an image.
+     *
+     * @param inputStream The content of the image, it's not closed
+     * @return The {@link ImageHeader} or {@code null} if the format isn't supported
+     * @throws IOException If reading fails
+     */
+    static ImageHeader parse(InputStream inputStream) throws IOException {
+        final BufferedInputStream in = new BufferedInputStream(inputStream);
+
+        final byte[] magic = new byte[MAGIC_SIZE];
+        in.mark(MAGIC_SIZE);
+        final int length = readFully(in, magic, MAGIC_SIZE);
+        in.reset();
+
+        final String mimeType = MimeTypeSniffer.sniff(magic, length);
+        if (mimeType == null) {
+            return null;
+        }
+
+        final Reader reader = new Reader(in);
+
+        switch (mimeType) {
+            case "image/jpeg":
+                return parseJpeg(reader);
+            case "image/png":
+                return parsePng(reader);
+            case "image/gif":
+                return parseGif(reader);
+            case "image/webp":
+                return parseWebp(reader);
+            case "image/heic":
+            case "image/heif":
+            case "image/avif":
+                return parseHeif(reader);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return The width the image is encoded with, like the width in the {@link android.provider.MediaStore}
+     */
+    int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return The height the image is encoded with, like the height in the {@link android.provider.MediaStore}
+     */
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return The clockwise rotation in degrees that displays the image upright, either 0, 90, 180 or 270
+     */
+    int getRotation() {
+        return rotation;
+    }
+
+    private static ImageHeader parseJpeg(Reader reader) throws IOException {
+        reader.skip(2);
+
+        int rotation = 0;
+
+        while (true) {
+            if (reader.u8() != 0xFF) {
+                return null;
+            }
+
+            int marker = reader.u8();
+            while (marker == 0xFF) {
+                // fill bytes
+                marker = reader.u8();
+            }
+
+            if (marker == 0xD9 || marker == 0xDA) {
+                // end of image or start of scan, without a frame header
+                return null;
+
+            } else if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                // no payload
+                continue;
+            }
+
+            final int length = reader.u16(false) - 2;
+            if (length < 0) {
+                return null;
+            }
+
+            if (isStartOfFrame(marker)) {
+                reader.u8(); // precision
+                final int height = reader.u16(false);
+                final int width = reader.u16(false);
+                return new ImageHeader(width, height, rotation);
+
+            } else if (marker == 0xE1) {
+                final byte[] segment = new byte[Math.min(length, MAX_EXIF_SIZE)];
+                reader.readFully(segment);
+                reader.skip(length - segment.length);
+                if (rotation == 0) {
+                    rotation = getRotation(getExifOrientation(segment));
+                }
+
+            } else {
+                reader.skip(length);
+            }
+        }
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    /**
+     * Orientations 3 and 4 rotate the image by 180 degrees, 5 and 6 by 90 and 7 and 8 by 270.
+     * The mirrored ones are treated like their rotation.
+     */
+    private static int getRotation(int exifOrientation) {
+        switch (exifOrientation) {
+            case 3:
+            case 4:
+                return 180;
+            case 5:
+            case 6:
+                return 90;
+            case 7:
+            case 8:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Find the orientation in the first IFD of an APP1 segment.
+     *
+     * @return The EXIF orientation or {@code 0} if there is none
+     */
+    private static int getExifOrientation(byte[] segment) {
+        final int tiff = 6;
+        if (segment.length < tiff + 8 || segment[0] != 'E' || segment[1] != 'x' || segment[2] != 'i' || segment[3] != 'f') {
+            return 0;
+        }
+
+        final boolean littleEndian;
+        if (segment[tiff] == 'I' && segment[tiff + 1] == 'I') {
+            littleEndian = true;
+        } else if (segment[tiff] == 'M' && segment[tiff + 1] == 'M') {
+            littleEndian = false;
+        } else {
+            return 0;
+        }
+
+        final long ifdOffset = getInt(segment, tiff + 4, littleEndian);
+        final long ifd = tiff + ifdOffset;
+        if (ifdOffset < 0 || ifd + 2 > segment.length) {
+            return 0;
+        }
+
+        final int entries = getShort(segment, (int) ifd, littleEndian);
+        for (int i = 0; i < entries; i++) {
+            final int entry = (int) ifd + 2 + i * 12;
+            if (entry + 12 > segment.length) {
+                return 0;
+            }
+
+            if (getShort(segment, entry, littleEndian) == EXIF_TAG_ORIENTATION) {
+                return getShort(segment, entry + 8, littleEndian);
+            }
+        }
+
+        return 0;
+    }
+
+    private static ImageHeader parsePng(Reader reader) throws IOException {
+        // signature, length of the first chunk, chunk type
+        reader.skip(8 + 4);
+        if (reader.u32(false) != 0x49484452L) {
+            // first chunk must be IHDR
+            return null;
+        }
+
+        final long width = reader.u32(false);
+        final long height = reader.u32(false);
+        return create(width, height, 0);
+    }
+
+    private static ImageHeader parseGif(Reader reader) throws IOException {
+        reader.skip(6);
+        final int width = reader.u16(true);
+        final int height = reader.u16(true);
+        return new ImageHeader(width, height, 0);
+    }
+
+    private static ImageHeader parseWebp(Reader reader) throws IOException {
+        // RIFF, size, WEBP
+        reader.skip(12);
+
+        final long chunk = reader.u32(false);
+        reader.skip(4); // chunk size
+
+        if (chunk == 0x56503820L) {
+            // VP8: frame tag, start code, 14 bit dimensions
+            reader.skip(3 + 3);
+            final int width = reader.u16(true) & 0x3FFF;
+            final int height = reader.u16(true) & 0x3FFF;
+            return new ImageHeader(width, height, 0);
+
+        } else if (chunk == 0x5650384CL) {
+            // VP8L: signature, 14 bit dimensions minus one
+            if (reader.u8() != 0x2F) {
+                return null;
+            }
+            final int b0 = reader.u8();
+            final int b1 = reader.u8();
+            final int b2 = reader.u8();
+            final int b3 = reader.u8();
+            final int width = 1 + (b0 | ((b1 & 0x3F) << 8));
+            final int height = 1 + ((b1 >> 6) | (b2 << 2) | ((b3 & 0x0F) << 10));
+            return new ImageHeader(width, height, 0);
+
+        } else if (chunk == 0x56503858L) {
+            // VP8X: flags, reserved, 24 bit dimensions minus one
+            reader.skip(4);
+            final int width = 1 + (reader.u8() | (reader.u8() << 8) | (reader.u8() << 16));
+            final int height = 1 + (reader.u8() | (reader.u8() << 8) | (reader.u8() << 16));
+            return new ImageHeader(width, height, 0);
+        }
+
+        return null;
+    }
+
+    /**
+     * HEIF stores the properties of its images in {@code meta/iprp/ipco}. The primary image
+     * is assumed to be the largest one, which skips thumbnails without resolving item references.
+     */
+    private static ImageHeader parseHeif(Reader reader) throws IOException {
+        while (true) {
+            long size = reader.u32(false);
+            final long type = reader.u32(false);
+            long headerSize = 8;
+
+            if (size == 1) {
+                size = reader.u64();
+                headerSize = 16;
+            }
+
+            if (size != 0 && size < headerSize) {
+                return null;
+            }
+
+            if (type == fourCc("meta")) {
+                if (size == 0 || size - headerSize > MAX_BOX_SIZE) {
+                    return null;
+                }
+
+                final byte[] meta = new byte[(int) (size - headerSize)];
+                reader.readFully(meta);
+
+                // full box, version and flags come first
+                return parseHeifMeta(meta, 4, meta.length);
+
+            } else if (type == fourCc("mdat") || size == 0) {
+                // image data before its description
+                return null;
+            }
+
+            reader.skip(size - headerSize);
+        }
+    }
+
+    private static ImageHeader parseHeifMeta(byte[] data, int start, int end) {
+        final int iprp = findBox(data, start, end, fourCc("iprp"));
+        if (iprp == -1) {
+            return null;
+        }
+
+        final int ipco = findBox(data, iprp + 8, iprp + (int) getInt(data, iprp, false), fourCc("ipco"));
+        if (ipco == -1) {
+            return null;
+        }
+
+        long width = 0;
+        long height = 0;
+        int rotation = 0;
+
+        final int ipcoEnd = ipco + (int) getInt(data, ipco, false);
+        int box = ipco + 8;
+        while (box + 8 <= ipcoEnd) {
+            final long size = getInt(data, box, false);
+            final long type = getInt(data, box + 4, false);
+            if (size < 8 || box + size > ipcoEnd) {
+                break;
+            }
+
+            if (type == fourCc("ispe") && size >= 20) {
+                // full box, width, height
+                final long w = getInt(data, box + 12, false);
+                final long h = getInt(data, box + 16, false);
+                if (w * h > width * height) {
+                    width = w;
+                    height = h;
+                }
+
+            } else if (type == fourCc("irot") && size >= 9) {
+                // counter-clockwise rotation in steps of 90 degrees
+                rotation = (360 - (data[box + 8] & 0x03) * 90) % 360;
+            }
+
+            box += size;
+        }
+
+        return create(width, height, rotation);
+    }
+
+    /**
+     * @return The offset of the first box with the given type, or {@code -1}
+     */
+    private static int findBox(byte[] data, int start, int end, long type) {
+        end = Math.min(end, data.length);
+
+        int box = start;
+        while (box + 8 <= end) {
+            final long size = getInt(data, box, false);
+            if (size < 8 || box + size > end) {
+                return -1;
+            }
+
+            if (getInt(data, box + 4, false) == type) {
+                return box;
+            }
+
+            box += size;
+        }
+
+        return -1;
+    }
+
+    private static ImageHeader create(long width, long height, int rotation) {
+        if (width <= 0 || height <= 0 || width > Integer.MAX_VALUE || height > Integer.MAX_VALUE) {
+            return null;
+        }
+        return new ImageHeader((int) width, (int) height, rotation);
+    }
+
+    private static long fourCc(String type) {
+        return ((long) type.charAt(0) << 24) | (type.charAt(1) << 16) | (type.charAt(2) << 8) | type.charAt(3);
+    }
+
+    private static int getShort(byte[] data, int offset, boolean littleEndian) {
+        final int b0 = data[offset] & 0xFF;
+        final int b1 = data[offset + 1] & 0xFF;
+        return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private static long getInt(byte[] data, int offset, boolean littleEndian) {
+        if (offset < 0 || offset + 4 > data.length) {
+            return -1;
+        }
+
+        final long b0 = data[offset] & 0xFF;
+        final long b1 = data[offset + 1] & 0xFF;
+        final long b2 = data[offset + 2] & 0xFF;
+        final long b3 = data[offset + 3] & 0xFF;
+        return littleEndian
+                ? (b3 << 24) | (b2 << 16) | (b1 << 8) | b0
+                : (b0 << 24) | (b1 << 16) | (b2 << 8) | b3;
+    }
+
+    private static int readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int offset = 0;
+        int read;
+        while (offset < length && (read = in.read(buffer, offset, length - offset)) != -1) {
+            offset += read;
+        }
+        return offset;
+    }
+
+    /**
+     * Reads numbers from an {@link InputStream}, fails on a premature end.
+     */
+    private static class Reader {
+
+        private final InputStream in;
+
+        Reader(InputStream in) {
+            this.in = in;
+        }
+
+        int u8() throws IOException {
+            final int b = in.read();
+            if (b == -1) {
+                throw new EOFException();
+            }
+            return b;
+        }
+
+        int u16(boolean littleEndian) throws IOException {
+            final int b0 = u8();
+            final int b1 = u8();
+            return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+        }
+
+        long u32(boolean littleEndian) throws IOException {
+            final long s0 = u16(littleEndian);
+            final long s1 = u16(littleEndian);
+            return littleEndian ? (s1 << 16) | s0 : (s0 << 16) | s1;
+        }
+
+        long u64() throws IOException {
+            return (u32(false) << 32) | u32(false);
+        }
+
+        void readFully(byte[] buffer) throws IOException {
+            if (ImageHeader.readFully(in, buffer, buffer.length) != buffer.length) {
+                throw new EOFException();
+            }
+        }
+
+        void skip(long count) throws IOException {
+            while (count > 0) {
+                final long skipped = in.skip(count);
+                if (skipped > 0) {
+                    count -= skipped;
+                } else {
+                    u8();
+                    count--;
+                }
+            }
+        }
+    }
+}
@@ -1,54 +1,513 @@
 package zendesk.belvedere;
 
-import android.util.SparseArray;
+import android.net.Uri;
 
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Hands out request codes for {@link MediaIntent}s and keeps track of the pending requests.
+ * <p>
+ * There are {@link #SLOTS} slots, free slots are kept in a free-list and occupied slots in
+ * a list ordered by age, so reserving and freeing a slot doesn't depend on the number of
+ * pending requests. If all slots are taken, only the oldest pending request is dropped.
+ * </p>
+ * <p>
+ * Every time a slot is reserved its generation is bumped. The generation is part of the
+ * request code, a result for a request code of an older generation of the slot is stale
+ * and gets ignored.
+ * </p>
+ * <p>
+ * Pending requests are recorded in an append-only journal, so that a result can still be
+ * handled if the process got killed while e.g. the camera app was in the foreground. The
+ * journal is replayed on the background {@link Executor} as soon as the registry is created
+ * and compacted once it contains too many stale lines. Changes are written to the journal in
+ * order on the background {@link Executor}, the calling thread never touches the disk unless
+ * it needs the registry before it got loaded.
+ * </p>
+ */
 class IntentRegistry {
 
     private final static int START_REQUEST_CODE = 1600;
-    private final static int END_REQUEST_CODE = 1650;
+    private final static int SLOTS = 50;
+    private final static int GENERATIONS = 8;
+
+    private final static int NONE = -1;
+
+    private final static String SEPARATOR = "\t";
+    private final static String RESERVED = "R";
+    private final static String FREED = "F";
+    private final static int COMPACTION_THRESHOLD = 64;
+
+    private final File journalFile;
+    private final Executor executor;
+    private boolean loaded;
+    private int journalLines;
+
+    // changes that still have to be written to the journal, oldest first
+    private final List<JournalWrite> journalWrites;
+    private final AtomicBoolean flushScheduled;
+    private final Object journalLock;
 
-    private SparseArray<MediaResult> pendingIntents;
+    private final MediaResult[] pendingIntents;
+    private final int[] generations;
 
-    IntentRegistry() {
-        this.pendingIntents = new SparseArray<>();
+    // free-list of slots, linked through nextFree
+    private final int[] nextFree;
+    private int freeHead;
+
+    // occupied slots, oldest first
+    private final int[] olderSlot;
+    private final int[] newerSlot;
+    private int oldestSlot;
+    private int newestSlot;
+
+    /**
+     * @param journalFile File that persists the pending requests
+     * @param executor    {@link Executor} that reads and writes the journal
+     */
+    IntentRegistry(File journalFile, Executor executor) {
+        this.journalFile = journalFile;
+        this.executor = executor;
+        this.loaded = false;
+        this.journalLines = 0;
+        this.journalWrites = new ArrayList<>();
+        this.flushScheduled = new AtomicBoolean(false);
+        this.journalLock = new Object();
+        this.pendingIntents = new MediaResult[SLOTS];
+        this.generations = new int[SLOTS];
+        this.nextFree = new int[SLOTS];
+        this.olderSlot = new int[SLOTS];
+        this.newerSlot = new int[SLOTS];
+        resetSlots();
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (IntentRegistry.this) {
+                    ensureLoaded();
+                }
+            }
+        });
+    }
+
+    private void resetSlots() {
+        for(int i = 0; i < SLOTS; i++) {
+            pendingIntents[i] = null;
+            nextFree[i] = i + 1 < SLOTS ? i + 1 : NONE;
+            olderSlot[i] = NONE;
+            newerSlot[i] = NONE;
+        }
+
+        freeHead = 0;
+        oldestSlot = NONE;
+        newestSlot = NONE;
     }
 
     int reserveSlot() {
-        final int requestCode;
         synchronized (this) {
-            requestCode = getRequestCode();
-            pendingIntents.put(requestCode, MediaResult.empty());
+            ensureLoaded();
+
+            if(freeHead == NONE) {
+                final int slot = oldestSlot;
+                L.w(Belvedere.LOG_TAG, String.format(Locale.US,
+                        "No slot free. Dropping oldest pending request: %d", getRequestCode(slot)));
+                release(slot);
+            }
+
+            final int slot = freeHead;
+            generations[slot] = (generations[slot] + 1) % GENERATIONS;
+            occupy(slot, MediaResult.empty());
+
+            final int requestCode = getRequestCode(slot);
+            appendToJournal(reservedLine(requestCode, pendingIntents[slot]));
+            return requestCode;
         }
-        return requestCode;
     }
 
     void freeSlot(int requestCode) {
         synchronized (this) {
-            pendingIntents.remove(requestCode);
+            ensureLoaded();
+            final int slot = getSlot(requestCode);
+            if(slot != NONE) {
+                release(slot);
+                appendToJournal(FREED + SEPARATOR + requestCode);
+            }
         }
     }
 
     void updateRequestCode(int requestCode, MediaResult belvedereResult) {
         synchronized (this) {
-            pendingIntents.put(requestCode, belvedereResult);
+            ensureLoaded();
+            final int slot = getSlot(requestCode);
+            if(slot != NONE) {
+                pendingIntents[slot] = belvedereResult;
+                appendToJournal(reservedLine(requestCode, belvedereResult));
+            }
         }
     }
 
     MediaResult getForRequestCode(int requestCode) {
         synchronized (this) {
-            return pendingIntents.get(requestCode);
+            ensureLoaded();
+            final int slot = getSlot(requestCode);
+            return slot != NONE ? pendingIntents[slot] : null;
+        }
+    }
+
+    /**
+     * Check if the provided {@link File} belongs to a pending request, e.g. the
+     * file the camera is going to write into.
+     */
+    boolean isPending(File file) {
+        synchronized (this) {
+            ensureLoaded();
+            for(int slot = oldestSlot; slot != NONE; slot = newerSlot[slot]) {
+                if(file.equals(pendingIntents[slot].getFile())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private int getRequestCode(int slot) {
+        return START_REQUEST_CODE + generations[slot] * SLOTS + slot;
+    }
+
+    /**
+     * Find the slot of a request code.
+     *
+     * @return The slot or {@link #NONE} if the request code doesn't belong to a pending request
+     */
+    private int getSlot(int requestCode) {
+        final int offset = requestCode - START_REQUEST_CODE;
+        if(offset < 0 || offset >= SLOTS * GENERATIONS) {
+            return NONE;
+        }
+
+        final int slot = offset % SLOTS;
+        if(pendingIntents[slot] == null || generations[slot] != offset / SLOTS) {
+            L.d(Belvedere.LOG_TAG, String.format(Locale.US, "Stale request code: %d", requestCode));
+            return NONE;
+        }
+
+        return slot;
+    }
+
+    private void occupy(int slot, MediaResult mediaResult) {
+        // slots are only taken from the head of the free-list
+        freeHead = nextFree[slot];
+        nextFree[slot] = NONE;
+        pendingIntents[slot] = mediaResult;
+        appendNewest(slot);
+    }
+
+    private void release(int slot) {
+        pendingIntents[slot] = null;
+        unlink(slot);
+        nextFree[slot] = freeHead;
+        freeHead = slot;
+    }
+
+    private void appendNewest(int slot) {
+        olderSlot[slot] = newestSlot;
+        newerSlot[slot] = NONE;
+        if(newestSlot != NONE) {
+            newerSlot[newestSlot] = slot;
+        } else {
+            oldestSlot = slot;
+        }
+        newestSlot = slot;
+    }
+
+    private void unlink(int slot) {
+        final int older = olderSlot[slot];
+        final int newer = newerSlot[slot];
+
+        if(older != NONE) {
+            newerSlot[older] = newer;
+        } else {
+            oldestSlot = newer;
+        }
+
+        if(newer != NONE) {
+            olderSlot[newer] = older;
+        } else {
+            newestSlot = older;
+        }
+
+        olderSlot[slot] = NONE;
+        newerSlot[slot] = NONE;
+    }
+
+    /**
+     * Replay the journal. It's loaded in the background right after the registry is
+     * created, only a caller that needs it before that reads it right away.
+     */
+    private void ensureLoaded() {
+        if(loaded) {
+            return;
+        }
+        loaded = true;
+
+        if(!journalFile.isFile()) {
+            return;
+        }
+
+        // pending requests by request code, oldest first
+        final Map<Integer, MediaResult> pending = new LinkedHashMap<>();
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), "UTF-8"));
+
+            String line;
+            while((line = reader.readLine()) != null) {
+                journalLines++;
+                replay(line.split(SEPARATOR, -1), pending);
+            }
+
+        } catch (IOException e) {
+            L.e(Belvedere.LOG_TAG, "Error reading intent registry", e);
+
+        } finally {
+            close(reader);
+        }
+
+        for(Map.Entry<Integer, MediaResult> entry : pending.entrySet()) {
+            final int slot = (entry.getKey() - START_REQUEST_CODE) % SLOTS;
+            removeFromFreeList(slot);
+            pendingIntents[slot] = entry.getValue();
+            appendNewest(slot);
+        }
+
+        L.d(Belvedere.LOG_TAG, String.format(Locale.US, "Intent registry restored - Pending requests: %d", pending.size()));
+    }
+
+    private void replay(String[] fields, Map<Integer, MediaResult> pending) {
+        final int requestCode;
+        try {
+            requestCode = Integer.parseInt(fields.length > 1 ? fields[1] : "");
+        } catch (NumberFormatException e) {
+            return;
+        }
+
+        final int offset = requestCode - START_REQUEST_CODE;
+        if(offset < 0 || offset >= SLOTS * GENERATIONS) {
+            return;
         }
+
+        final int slot = offset % SLOTS;
+        generations[slot] = offset / SLOTS;
+
+        // a newer generation of the slot replaces the old one
+        for(int generation = 0; generation < GENERATIONS; generation++) {
+            if(generation != generations[slot]) {
+                pending.remove(START_REQUEST_CODE + generation * SLOTS + slot);
+            }
+        }
+
+        if(RESERVED.equals(fields[0]) && fields.length == 5) {
+            pending.put(requestCode, restoreMediaResult(fields[2], fields[3], fields[4]));
+
+        } else if(FREED.equals(fields[0])) {
+            pending.remove(requestCode);
+        }
+    }
+
+    private void removeFromFreeList(int slot) {
+        if(freeHead == slot) {
+            freeHead = nextFree[slot];
+        } else {
+            for(int i = freeHead; i != NONE; i = nextFree[i]) {
+                if(nextFree[i] == slot) {
+                    nextFree[i] = nextFree[slot];
+                    break;
+                }
+            }
+        }
+        nextFree[slot] = NONE;
+    }
+
+    private static MediaResult restoreMediaResult(String path, String uri, String name) {
+        if(path.length() == 0 || uri.length() == 0) {
+            return MediaResult.empty();
+        }
+
+        final Uri parsedUri = Uri.parse(uri);
+        return new MediaResult(new File(path), parsedUri, parsedUri, name, null,
+                MediaResult.UNKNOWN_VALUE, MediaResult.UNKNOWN_VALUE, MediaResult.UNKNOWN_VALUE);
+    }
+
+    private static String reservedLine(int requestCode, MediaResult mediaResult) {
+        final String path = mediaResult.getFile() != null ? mediaResult.getFile().getAbsolutePath() : "";
+        final String uri = mediaResult.getUri() != null ? mediaResult.getUri().toString() : "";
+        final String name = mediaResult.getName() != null ? mediaResult.getName() : "";
+
+        if(!isValidField(path) || !isValidField(uri) || !isValidField(name)) {
+            // can't be restored, only remember the slot
+            return RESERVED + SEPARATOR + requestCode + SEPARATOR + SEPARATOR + SEPARATOR;
+        }
+
+        return RESERVED + SEPARATOR + requestCode + SEPARATOR + path + SEPARATOR + uri + SEPARATOR + name;
+    }
+
+    private static boolean isValidField(String field) {
+        return !field.contains(SEPARATOR) && !field.contains("\n");
+    }
+
+    private void appendToJournal(String line) {
+        if(journalLines > COMPACTION_THRESHOLD && journalLines > countPending() * 2) {
+            compactJournal();
+            return;
+        }
+
+        journalLines++;
+        scheduleWrite(new JournalWrite(Collections.singletonList(line), false));
+    }
+
+    /**
+     * Rewrite the journal with the pending requests only. Freed slots keep their generation,
+     * because it's part of the request codes that might still be handed out.
+     */
+    private void compactJournal() {
+        final List<String> lines = new ArrayList<>();
+
+        for(int slot = 0; slot < SLOTS; slot++) {
+            if(pendingIntents[slot] == null && generations[slot] != 0) {
+                lines.add(FREED + SEPARATOR + getRequestCode(slot));
+            }
+        }
+
+        for(int slot = oldestSlot; slot != NONE; slot = newerSlot[slot]) {
+            lines.add(reservedLine(getRequestCode(slot), pendingIntents[slot]));
+        }
+
+        journalLines = lines.size();
+        scheduleWrite(new JournalWrite(lines, true));
     }
 
-    private int getRequestCode() {
-        for(int i = START_REQUEST_CODE; i < END_REQUEST_CODE; i++) {
-            if(pendingIntents.get(i) == null) {
-                return i;
+    private void scheduleWrite(JournalWrite write) {
+        synchronized (journalWrites) {
+            journalWrites.add(write);
+        }
+
+        if(flushScheduled.compareAndSet(false, true)) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flushScheduled.set(false);
+                    flushJournal();
+                }
+            });
+        }
+    }
+
+    /**
+     * Write the queued changes to the journal, in the order they were made.
+     */
+    private void flushJournal() {
+        synchronized (journalLock) {
+            final List<JournalWrite> writes;
+            synchronized (journalWrites) {
+                writes = new ArrayList<>(journalWrites);
+                journalWrites.clear();
+            }
+
+            for(JournalWrite write : writes) {
+                if(write.replace) {
+                    replaceJournal(write.lines);
+                } else {
+                    appendJournal(write.lines);
+                }
+            }
+        }
+    }
+
+    private void appendJournal(List<String> lines) {
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(journalFile, true), "UTF-8");
+            for(String line : lines) {
+                writer.write(line + "\n");
+            }
+
+        } catch (IOException e) {
+            L.e(Belvedere.LOG_TAG, "Error writing intent registry", e);
+
+        } finally {
+            close(writer);
+        }
+    }
+
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private void replaceJournal(List<String> lines) {
+        final File tmpFile = new File(journalFile.getParentFile(), journalFile.getName() + ".tmp");
+
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8");
+            for(String line : lines) {
+                writer.write(line + "\n");
             }
+
+            writer.close();
+            writer = null;
+
+            if(!tmpFile.renameTo(journalFile)) {
+                tmpFile.delete();
+            }
+
+        } catch (IOException e) {
+            L.e(Belvedere.LOG_TAG, "Error compacting intent registry", e);
+
+        } finally {
+            close(writer);
         }
+    }
 
-        L.d(Belvedere.LOG_TAG, "No slot free. Clearing registry.");
-        pendingIntents.clear();
-        return getRequestCode();
+    private int countPending() {
+        int count = 0;
+        for(int slot = oldestSlot; slot != NONE; slot = newerSlot[slot]) {
+            count++;
+        }
+        return count;
+    }
+
+    private static void close(Closeable closeable) {
+        try {
+            if(closeable != null) {
+                closeable.close();
+            }
+        } catch (IOException e) {
+            L.e(Belvedere.LOG_TAG, "Error closing intent registry", e);
+        }
+    }
+
+    private static class JournalWrite {
+
+        private final List<String> lines;
+        private final boolean replace;
+
+        JournalWrite(List<String> lines, boolean replace) {
+            this.lines = lines;
+            this.replace = replace;
+        }
     }
 }
@@ -0,0 +1,100 @@
+package zendesk.belvedere;
+
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Restricts the files that are accepted from an {@link android.app.Activity} result.
+ * <p>
+ *     The size and the mime type of every selected file are checked against the filter before
+ *     the file gets copied into the internal cache. Rejected files aren't copied at all, a
+ *     {@link ResolveCallback} is informed about them through {@link ResolveCallback#itemRejected(MediaResult)}.
+ * </p>
+ * <p>
+ *     Files whose mime type isn't known by the provider are accepted. Files whose size isn't
+ *     known by the provider are checked again once it's known: after they were copied, or, if
+ *     they aren't copied, against the length of their file descriptor. Only if neither is
+ *     known they are accepted.
+ * </p>
+ */
+public class MediaFilter {
+
+    private static final String WILDCARD = "*";
+    private static final String SUBTYPE_WILDCARD = "/*";
+
+    /**
+     * A {@link MediaFilter} that accepts all files.
+     */
+    public static final MediaFilter ACCEPT_ALL = new MediaFilter(MediaResult.UNKNOWN_VALUE, new ArrayList<String>(0));
+
+    private final long maxFileSize;
+    private final List<String> mimeTypes;
+
+    /**
+     * @param maxFileSize Maximum file size in bytes or {@code -1} for no limit
+     * @param mimeTypes   Allowed mime types, e.g. {@code image/jpeg} or {@code image/*}. An
+     *                    empty list allows all mime types.
+     */
+    public MediaFilter(long maxFileSize, @NonNull List<String> mimeTypes) {
+        this.maxFileSize = maxFileSize;
+
+        final List<String> normalized = new ArrayList<>(mimeTypes.size());
+        for (String mimeType : mimeTypes) {
+            normalized.add(mimeType.toLowerCase(Locale.US));
+        }
+        this.mimeTypes = Collections.unmodifiableList(normalized);
+    }
+
+    /**
+     * Check if the file, described by the provided {@link MediaResult}, passes the filter.
+     *
+     * @param metadata Metadata of the file, as reported by its provider
+     * @return {@code true} if the file is accepted, {@code false} if not
+     */
+    public boolean accepts(@NonNull MediaResult metadata) {
+        return acceptsSize(metadata.getSize()) && acceptsMimeType(metadata.getMimeType());
+    }
+
+    /**
+     * @return {@code true} if the filter has a maximum file size
+     */
+    boolean limitsSize() {
+        return maxFileSize != MediaResult.UNKNOWN_VALUE;
+    }
+
+    /**
+     * @param size The size of a file in bytes or {@link MediaResult#UNKNOWN_VALUE}
+     * @return {@code true} if the size is accepted, an unknown size always is
+     */
+    boolean acceptsSize(long size) {
+        return maxFileSize == MediaResult.UNKNOWN_VALUE
+                || size == MediaResult.UNKNOWN_VALUE
+                || size <= maxFileSize;
+    }
+
+    private boolean acceptsMimeType(String mimeType) {
+        if (mimeTypes.isEmpty() || TextUtils.isEmpty(mimeType)) {
+            return true;
+        }
+
+        final String type = mimeType.toLowerCase(Locale.US);
+        for (String allowed : mimeTypes) {
+            if (allowed.equals(type) || allowed.equals(WILDCARD) || allowed.equals(WILDCARD + SUBTYPE_WILDCARD)) {
+                return true;
+            }
+
+            if (allowed.endsWith(SUBTYPE_WILDCARD)
+                    && type.startsWith(allowed.substring(0, allowed.length() - SUBTYPE_WILDCARD.length() + 1))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
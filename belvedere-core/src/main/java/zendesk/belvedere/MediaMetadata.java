@@ -0,0 +1,403 @@
+package zendesk.belvedere;
+
+import android.annotation.SuppressLint;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+import android.net.Uri;
+import android.provider.BaseColumns;
+import android.provider.DocumentsContract;
+import android.provider.MediaStore;
+import android.provider.OpenableColumns;
+import android.text.TextUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static zendesk.belvedere.MediaResult.UNKNOWN_VALUE;
+
+/**
+ * Metadata of the media behind an {@link Uri}, as reported by its provider.
+ * <p>
+ * Name, size, mime type, dimensions and the last modified date are fetched with a single
+ * query per {@link Uri}. {@link Uri}s pointing into the {@link MediaStore} are grouped by
+ * collection and fetched with a single {@code _id IN (...)} query per collection.
+ * </p>
+ */
+class MediaMetadata {
+
+    private final static String MEDIA_STORE_PICKER_SEGMENT = "picker";
+    private final static int MAX_ID_LENGTH = 18;
+
+    @SuppressLint("InlinedApi")
+    private final static String[] MEDIA_STORE_PROJECTION = {
+            BaseColumns._ID,
+            MediaStore.MediaColumns.DISPLAY_NAME,
+            MediaStore.MediaColumns.SIZE,
+            MediaStore.MediaColumns.MIME_TYPE,
+            MediaStore.MediaColumns.WIDTH,
+            MediaStore.MediaColumns.HEIGHT,
+            MediaStore.MediaColumns.DATE_MODIFIED
+    };
+
+    @SuppressLint("InlinedApi")
+    private final static String[] PROVIDER_PROJECTION = {
+            MediaStore.MediaColumns.DISPLAY_NAME,
+            MediaStore.MediaColumns.SIZE,
+            MediaStore.MediaColumns.MIME_TYPE,
+            MediaStore.MediaColumns.WIDTH,
+            MediaStore.MediaColumns.HEIGHT,
+            MediaStore.MediaColumns.DATE_MODIFIED,
+            DocumentsContract.Document.COLUMN_LAST_MODIFIED
+    };
+
+    private final static String[] OPENABLE_PROJECTION = {
+            OpenableColumns.DISPLAY_NAME,
+            OpenableColumns.SIZE
+    };
+
+    private final Uri uri;
+    private final String name;
+    private final String mimeType;
+    private final long size;
+    private final long width;
+    private final long height;
+    private final long lastModified;
+
+    private MediaMetadata(Uri uri, String name, String mimeType, long size, long width, long height, long lastModified) {
+        this.uri = uri;
+        this.name = name;
+        this.mimeType = mimeType;
+        this.size = size;
+        this.width = width;
+        this.height = height;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Fetch the metadata of a single {@link Uri}.
+     *
+     * @param context A valid application {@link Context}
+     * @param uri     An {@link Uri}
+     * @return The {@link MediaMetadata}, unknown values are {@link MediaResult#UNKNOWN_VALUE}
+     */
+    static MediaMetadata load(Context context, Uri uri) {
+        final String schema = uri.getScheme();
+
+        if (ContentResolver.SCHEME_CONTENT.equals(schema)) {
+            return loadFromProvider(context, uri);
+
+        } else if (ContentResolver.SCHEME_FILE.equals(schema)) {
+            return loadFromFile(uri);
+        }
+
+        return empty(uri);
+    }
+
+    /**
+     * Fetch the metadata of a list of {@link Uri}s.
+     *
+     * @param context A valid application {@link Context}
+     * @param uris    A list of {@link Uri}s
+     * @return The {@link MediaMetadata}, in the order of the provided {@link Uri}s
+     */
+    static MediaMetadata[] loadAll(Context context, Uri[] uris) {
+        final MediaMetadata[] result = new MediaMetadata[uris.length];
+        final Map<Uri, Map<Long, List<Integer>>> collections = new LinkedHashMap<>();
+
+        for (int i = 0; i < uris.length; i++) {
+            final Uri collection = getMediaStoreCollection(uris[i]);
+            if (collection == null) {
+                continue;
+            }
+
+            Map<Long, List<Integer>> ids = collections.get(collection);
+            if (ids == null) {
+                ids = new LinkedHashMap<>();
+                collections.put(collection, ids);
+            }
+
+            final long id = Long.parseLong(uris[i].getLastPathSegment());
+            List<Integer> indices = ids.get(id);
+            if (indices == null) {
+                indices = new ArrayList<>(1);
+                ids.put(id, indices);
+            }
+            indices.add(i);
+        }
+
+        for (Map.Entry<Uri, Map<Long, List<Integer>>> collection : collections.entrySet()) {
+            final Map<Long, MediaMetadata> rows = loadFromMediaStore(context, collection.getKey(), collection.getValue().keySet());
+            for (Map.Entry<Long, List<Integer>> id : collection.getValue().entrySet()) {
+                final MediaMetadata row = rows.get(id.getKey());
+                if (row == null) {
+                    continue;
+                }
+                for (int index : id.getValue()) {
+                    result[index] = row.withUri(uris[index]);
+                    if (TextUtils.isEmpty(row.mimeType)) {
+                        result[index] = result[index].withMimeType(MimeTypeSniffer.sniff(context, uris[index]));
+                    }
+                }
+            }
+        }
+
+        // everything that isn't in the media store, or wasn't found there
+        for (int i = 0; i < uris.length; i++) {
+            if (result[i] == null) {
+                result[i] = load(context, uris[i]);
+            }
+        }
+
+        return result;
+    }
+
+    Uri getUri() {
+        return uri;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getMimeType() {
+        return mimeType;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    long getWidth() {
+        return width;
+    }
+
+    long getHeight() {
+        return height;
+    }
+
+    /**
+     * The last modified date is only meant to detect changes, its unit depends on the provider.
+     */
+    long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Create a {@link MediaResult} that describes the media behind the {@link Uri},
+     * without a local {@link File}.
+     */
+    MediaResult toMediaResult() {
+        return new MediaResult(null, uri, uri, name, mimeType, size, width, height);
+    }
+
+    private MediaMetadata withUri(Uri uri) {
+        return new MediaMetadata(uri, name, mimeType, size, width, height, lastModified);
+    }
+
+    private MediaMetadata withMimeType(String mimeType) {
+        return new MediaMetadata(uri, name, mimeType, size, width, height, lastModified);
+    }
+
+    private static MediaMetadata empty(Uri uri) {
+        return new MediaMetadata(uri, "", "", UNKNOWN_VALUE, UNKNOWN_VALUE, UNKNOWN_VALUE, UNKNOWN_VALUE);
+    }
+
+    private static MediaMetadata loadFromFile(Uri uri) {
+        final File file = new File(uri.getPath());
+        final String name = uri.getLastPathSegment() != null ? uri.getLastPathSegment() : "";
+
+        return new MediaMetadata(uri, name, "",
+                file.isFile() ? file.length() : UNKNOWN_VALUE,
+                UNKNOWN_VALUE, UNKNOWN_VALUE,
+                file.isFile() ? file.lastModified() : UNKNOWN_VALUE);
+    }
+
+    /**
+     * Query the columns of the {@link Uri} that make up the metadata with a single query.
+     */
+    private static MediaMetadata loadFromProvider(Context context, Uri uri) {
+        final ContentResolver contentResolver = context.getContentResolver();
+
+        String name = "";
+        String mimeType = null;
+        long size = UNKNOWN_VALUE;
+        long width = UNKNOWN_VALUE;
+        long height = UNKNOWN_VALUE;
+        long lastModified = UNKNOWN_VALUE;
+
+        Cursor cursor = null;
+        try {
+            cursor = queryProvider(contentResolver, uri);
+            if (cursor != null && cursor.moveToFirst()) {
+                name = getString(cursor, MediaStore.MediaColumns.DISPLAY_NAME, "");
+                mimeType = getString(cursor, MediaStore.MediaColumns.MIME_TYPE, null);
+                size = getLong(cursor, MediaStore.MediaColumns.SIZE);
+                width = getLong(cursor, MediaStore.MediaColumns.WIDTH);
+                height = getLong(cursor, MediaStore.MediaColumns.HEIGHT);
+                lastModified = getLastModified(cursor);
+            }
+
+        } catch (IllegalArgumentException e) {
+            L.w(Belvedere.LOG_TAG, String.format(Locale.US, "Unable to query metadata, uri: %s", uri));
+
+        } catch (SQLiteException e) {
+            L.w(Belvedere.LOG_TAG, String.format(Locale.US, "Unable to query metadata, uri: %s", uri));
+
+        } catch (NullPointerException e) {
+            L.w(Belvedere.LOG_TAG, String.format(Locale.US, "Unable to query metadata, uri: %s", uri));
+
+        } catch (SecurityException e) {
+            L.w(Belvedere.LOG_TAG, String.format(Locale.US, "No access to metadata, uri: %s", uri));
+
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        if (TextUtils.isEmpty(mimeType)) {
+            // provider doesn't expose the mime type as a column
+            mimeType = contentResolver.getType(uri);
+        }
+
+        if (TextUtils.isEmpty(mimeType)) {
+            // provider doesn't know the mime type at all
+            mimeType = MimeTypeSniffer.sniff(context, uri);
+        }
+
+        return new MediaMetadata(uri, name, mimeType, size, width, height, lastModified);
+    }
+
+    /**
+     * The {@link MediaStore} checks the columns strictly, it's only asked for its own. Some
+     * other providers reject columns they don't know instead of leaving them out. Those are
+     * asked again for the {@link OpenableColumns}, which every provider has to support.
+     */
+    private static Cursor queryProvider(ContentResolver contentResolver, Uri uri) {
+        final String[] projection = MediaStore.AUTHORITY.equals(uri.getAuthority())
+                ? MEDIA_STORE_PROJECTION
+                : PROVIDER_PROJECTION;
+
+        try {
+            return contentResolver.query(uri, projection, null, null, null);
+        } catch (IllegalArgumentException e) {
+            L.d(Belvedere.LOG_TAG, String.format(Locale.US, "Provider rejected metadata columns, uri: %s", uri));
+        } catch (SQLiteException e) {
+            L.d(Belvedere.LOG_TAG, String.format(Locale.US, "Provider rejected metadata columns, uri: %s", uri));
+        }
+
+        return contentResolver.query(uri, OPENABLE_PROJECTION, null, null, null);
+    }
+
+    private static Map<Long, MediaMetadata> loadFromMediaStore(Context context, Uri collection, Iterable<Long> ids) {
+        final Map<Long, MediaMetadata> result = new HashMap<>();
+
+        final StringBuilder selection = new StringBuilder(BaseColumns._ID).append(" IN (");
+        final List<String> selectionArgs = new ArrayList<>();
+        for (long id : ids) {
+            selection.append(selectionArgs.isEmpty() ? "?" : ",?");
+            selectionArgs.add(String.valueOf(id));
+        }
+        selection.append(")");
+
+        Cursor cursor = null;
+        try {
+            cursor = context.getContentResolver().query(collection, MEDIA_STORE_PROJECTION, selection.toString(),
+                    selectionArgs.toArray(new String[selectionArgs.size()]), null);
+
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    final long id = cursor.getLong(0);
+                    result.put(id, new MediaMetadata(null,
+                            getString(cursor, MediaStore.MediaColumns.DISPLAY_NAME, ""),
+                            getString(cursor, MediaStore.MediaColumns.MIME_TYPE, ""),
+                            getLong(cursor, MediaStore.MediaColumns.SIZE),
+                            getLong(cursor, MediaStore.MediaColumns.WIDTH),
+                            getLong(cursor, MediaStore.MediaColumns.HEIGHT),
+                            getLong(cursor, MediaStore.MediaColumns.DATE_MODIFIED)));
+                }
+            }
+
+            L.d(Belvedere.LOG_TAG, String.format(Locale.US, "Batched metadata query - Collection: %s - Requested: %d - Found: %d",
+                    collection, selectionArgs.size(), result.size()));
+
+        } catch (IllegalArgumentException e) {
+            L.w(Belvedere.LOG_TAG, String.format(Locale.US, "Unable to query metadata, collection: %s", collection));
+
+        } catch (SQLiteException e) {
+            L.w(Belvedere.LOG_TAG, String.format(Locale.US, "Unable to query metadata, collection: %s", collection));
+
+        } catch (SecurityException e) {
+            // access might only be granted to the single uris
+            L.d(Belvedere.LOG_TAG, String.format(Locale.US, "No access to collection: %s", collection));
+
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Get the collection an {@link Uri} in the {@link MediaStore} belongs to, e.g.
+     * {@code content://media/external/images/media} for {@code content://media/external/images/media/42}.
+     *
+     * @return The collection or {@code null} if the {@link Uri} doesn't point to a single item in the {@link MediaStore}
+     */
+    private static Uri getMediaStoreCollection(Uri uri) {
+        if (!ContentResolver.SCHEME_CONTENT.equals(uri.getScheme()) || !MediaStore.AUTHORITY.equals(uri.getAuthority())) {
+            return null;
+        }
+
+        final List<String> segments = uri.getPathSegments();
+        if (segments.size() < 2 || MEDIA_STORE_PICKER_SEGMENT.equals(segments.get(0))) {
+            return null;
+        }
+
+        final String id = segments.get(segments.size() - 1);
+        if (id.length() > MAX_ID_LENGTH || !TextUtils.isDigitsOnly(id)) {
+            return null;
+        }
+
+        final Uri.Builder builder = new Uri.Builder()
+                .scheme(uri.getScheme())
+                .authority(uri.getAuthority());
+        for (String segment : segments.subList(0, segments.size() - 1)) {
+            builder.appendPath(segment);
+        }
+        return builder.build();
+    }
+
+    @SuppressLint("InlinedApi")
+    private static long getLastModified(Cursor cursor) {
+        final long lastModified = getLong(cursor, MediaStore.MediaColumns.DATE_MODIFIED);
+        return lastModified != UNKNOWN_VALUE
+                ? lastModified
+                : getLong(cursor, DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+    }
+
+    private static String getString(Cursor cursor, String column, String defaultValue) {
+        final int index = cursor.getColumnIndex(column);
+        if (index == -1 || cursor.isNull(index)) {
+            return defaultValue;
+        }
+        return cursor.getString(index);
+    }
+
+    private static long getLong(Cursor cursor, String column) {
+        final int index = cursor.getColumnIndex(column);
+        if (index == -1 || cursor.isNull(index)) {
+            return UNKNOWN_VALUE;
+        }
+        return cursor.getLong(index);
+    }
+}
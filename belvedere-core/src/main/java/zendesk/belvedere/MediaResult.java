@@ -16,6 +16,27 @@ public class MediaResult implements Parcelable, Comparable<MediaResult> {
 
     public static final long UNKNOWN_VALUE = -1L;
 
+    /**
+     * The media wasn't copied into Belvedere's cache.
+     */
+    public static final int COPY_MODE_NONE = 0;
+
+    /**
+     * The media was copied into Belvedere's cache through an {@link java.io.InputStream}.
+     */
+    public static final int COPY_MODE_STREAM = 1;
+
+    /**
+     * The media was copied into Belvedere's cache by transferring it between
+     * two {@link java.nio.channels.FileChannel}s.
+     */
+    public static final int COPY_MODE_CHANNEL = 2;
+
+    /**
+     * The media was already in Belvedere's cache and wasn't copied again.
+     */
+    public static final int COPY_MODE_CACHED = 3;
+
     static MediaResult empty() {
         return new MediaResult(null, null, null, null, null, UNKNOWN_VALUE, UNKNOWN_VALUE, UNKNOWN_VALUE);
     }
@@ -28,9 +49,21 @@ public class MediaResult implements Parcelable, Comparable<MediaResult> {
     private final long size;
     private final long width;
     private final long height;
+    private final int copyMode;
+    private final int orientation;
 
     public MediaResult(final File file, final Uri uri, final Uri originalUri,
                 final String name, final String mimeType, final long size, final long width, final long height) {
+        this(file, uri, originalUri, name, mimeType, size, width, height, COPY_MODE_NONE);
+    }
+
+    MediaResult(final File file, final Uri uri, final Uri originalUri, final String name, final String mimeType,
+                final long size, final long width, final long height, final int copyMode) {
+        this(file, uri, originalUri, name, mimeType, size, width, height, copyMode, (int) UNKNOWN_VALUE);
+    }
+
+    MediaResult(final File file, final Uri uri, final Uri originalUri, final String name, final String mimeType,
+                final long size, final long width, final long height, final int copyMode, final int orientation) {
         this.file = file;
         this.uri = uri;
         this.originalUri = originalUri;
@@ -39,6 +72,8 @@ public class MediaResult implements Parcelable, Comparable<MediaResult> {
         this.size = size;
         this.width = width;
         this.height = height;
+        this.copyMode = copyMode;
+        this.orientation = orientation;
     }
 
     /**
@@ -121,6 +156,27 @@ public class MediaResult implements Parcelable, Comparable<MediaResult> {
         return height;
     }
 
+    /**
+     * Gets the orientation of the image, read from its EXIF data or HEIF rotation.
+     * <br>
+     * The clockwise rotation in degrees that displays the image upright, either 0, 90, 180 or 270,
+     * or {@link #UNKNOWN_VALUE}. {@link #getWidth()} and {@link #getHeight()} are the dimensions
+     * the image is encoded with, they are swapped when it's displayed with a rotation of 90 or 270.
+     */
+    public int getOrientation() {
+        return orientation;
+    }
+
+    /**
+     * Gets how the media was copied into Belvedere's cache.
+     * <br>
+     * Either {@link #COPY_MODE_NONE}, {@link #COPY_MODE_STREAM}, {@link #COPY_MODE_CHANNEL}
+     * or {@link #COPY_MODE_CACHED}
+     */
+    public int getCopyMode() {
+        return copyMode;
+    }
+
     @Override
     public void writeToParcel(final Parcel dest, final int flags) {
         dest.writeSerializable(file);
@@ -131,6 +187,8 @@ public class MediaResult implements Parcelable, Comparable<MediaResult> {
         dest.writeLong(size);
         dest.writeLong(width);
         dest.writeLong(height);
+        dest.writeInt(copyMode);
+        dest.writeInt(orientation);
     }
 
     public static final Parcelable.Creator<MediaResult> CREATOR
@@ -154,6 +212,8 @@ public class MediaResult implements Parcelable, Comparable<MediaResult> {
         this.size = in.readLong();
         this.width = in.readLong();
         this.height = in.readLong();
+        this.copyMode = in.readInt();
+        this.orientation = in.readInt();
     }
 
     @Override
@@ -165,6 +225,7 @@ public class MediaResult implements Parcelable, Comparable<MediaResult> {
 
         if (size != that.size) return false;
         if (width != that.width || height != that.height) return false;
+        if (orientation != that.orientation) return false;
         if (file != null ? !file.equals(that.file) : that.file != null) return false;
         if (uri != null ? !uri.equals(that.uri) : that.uri != null) return false;
         if (originalUri != null ? !originalUri.equals(that.originalUri) : that.originalUri != null)
@@ -183,6 +244,7 @@ public class MediaResult implements Parcelable, Comparable<MediaResult> {
         result = 31 * result + (int) (size ^ (size >>> 32));
         result = 31 * result + (int) (width ^ (width >>> 32));
         result = 31 * result + (int) (height ^ (height >>> 32));
+        result = 31 * result + orientation;
         return result;
     }
 
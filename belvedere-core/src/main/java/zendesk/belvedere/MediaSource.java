@@ -7,18 +7,21 @@ import android.app.Activity;
 import android.content.ClipData;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
+import android.content.res.AssetFileDescriptor;
 import android.net.Uri;
 import android.os.Build;
 import android.provider.MediaStore;
+import android.webkit.MimeTypeMap;
 
 import androidx.core.util.Pair;
 
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Executor;
 
 /**
  * Internal Helper class. Responsible for creating {@link MediaIntent} and
@@ -26,14 +29,27 @@ import java.util.Locale;
  */
 class MediaSource {
 
+    private static final String CAMERA_IMG_EXTENSION = "jpg";
+
     private final Storage storage;
+    private final ResolveIndex resolveIndex;
     private final IntentRegistry intentRegistry;
+    private final Capabilities capabilities;
     private final Context context;
+    private final Executor executor;
+    private final Executor ioExecutor;
+    private final int resolveConcurrency;
 
-    MediaSource(Context context, Storage storage, IntentRegistry intentRegistry) {
+    MediaSource(Context context, Storage storage, ResolveIndex resolveIndex, IntentRegistry intentRegistry,
+                Capabilities capabilities, Executor executor, Executor ioExecutor, int resolveConcurrency) {
         this.context = context;
         this.storage = storage;
+        this.resolveIndex = resolveIndex;
+        this.executor = executor;
+        this.ioExecutor = ioExecutor;
         this.intentRegistry = intentRegistry;
+        this.capabilities = capabilities;
+        this.resolveConcurrency = resolveConcurrency;
     }
 
     /**
@@ -47,7 +63,7 @@ class MediaSource {
                                  String contentType,
                                  boolean allowMultiple,
                                  List<String> additionalTypes) {
-        if (hasDocumentApp(context)) {
+        if (capabilities.hasDocumentApp()) {
             return new MediaIntent(
                     requestCode,
                     getDocumentAndroidIntent(contentType, allowMultiple, additionalTypes),
@@ -85,53 +101,7 @@ class MediaSource {
      * @return {@code true} if it's possible to get an image from camera, {@code false} if not
      */
     private boolean canPickImageFromCamera(Context context){
-        return hasCamera(context);
-    }
-
-    /**
-     * Check if the device is capable to provide images through an
-     * installed camera app.
-     *
-     * <p>
-     *      The following things will be checked:
-     *      <ol>
-     *          <li>Is a camera available</li>
-     *          <li>Is there a camera app installed</li>
-     * </ol>
-     *
-     * @param context A valid application {@link Context}
-     * @return True if the device allows taking pictures from a camera, false if not
-     */
-    private boolean hasCamera(Context context){
-        final Intent mockIntent = new Intent();
-        mockIntent.setAction(MediaStore.ACTION_IMAGE_CAPTURE);
-
-        // ask the system if there is a camera (front, back)
-        final PackageManager packageManager = context.getPackageManager();
-        final boolean hasCamera = packageManager.hasSystemFeature(PackageManager.FEATURE_CAMERA)
-                || packageManager.hasSystemFeature(PackageManager.FEATURE_CAMERA_FRONT);
-
-        final boolean hasCameraApp = isIntentResolvable(mockIntent, context);
-
-        L.d(Belvedere.LOG_TAG, String.format(Locale.US, "Camera present: %b, Camera App present: %b", hasCamera, hasCameraApp));
-
-        return (hasCamera && hasCameraApp);
-    }
-
-    /**
-     * Check if the devices is able to provide media through an installed app.
-     *
-     * <p>
-     *      The following things will be checked:
-     *      <ol>
-     *          <li>Is an app installed that is able to provided the requested functionality.</li>
-     *      </ol>
-     *
-     * @param context Context
-     * @return True if we have permissions to get a picture from a gallery, false if not allowed
-     */
-    private boolean hasDocumentApp(Context context){
-        return isIntentResolvable(getDocumentAndroidIntent("*/*", false, new ArrayList<String>()), context);
+        return capabilities.hasCamera();
     }
 
     /**
@@ -144,10 +114,12 @@ class MediaSource {
      * @param callback Callback that will deliver a list of {@link MediaResult}
      * @param resolveFiles {@code true} if the selected files should be copied into the internal cache,
      *        {@code false} if not
+     * @param filter Files that don't pass the {@link MediaFilter} are dropped before they get copied
      */
     @SuppressWarnings("JavadocReference")
     void getFilesFromActivityOnResult(Context context, int requestCode, int resultCode,
-                                      Intent data, Callback<List<MediaResult>> callback, boolean resolveFiles){
+                                      Intent data, Callback<List<MediaResult>> callback, boolean resolveFiles,
+                                      MediaFilter filter){
         final List<MediaResult> result = new ArrayList<>();
         final MediaResult belvedereResult = intentRegistry.getForRequestCode(requestCode);
 
@@ -155,6 +127,7 @@ class MediaSource {
             if(belvedereResult.getFile() == null || belvedereResult.getUri() == null) {
                 // data in intent
                 L.d(Belvedere.LOG_TAG, String.format(Locale.US, "Parsing activity result - Gallery - Ok: %s", (resultCode == Activity.RESULT_OK)));
+                intentRegistry.freeSlot(requestCode);
 
                 if(resultCode == Activity.RESULT_OK) {
                     final List<Uri> uris = extractUrisFromIntent(data);
@@ -162,52 +135,166 @@ class MediaSource {
 
                     if(resolveFiles) {
                         L.d(Belvedere.LOG_TAG, "Resolving items");
-                        ResolveUriTask.start(context, storage, callback, uris);
+                        ResolveUriTask.start(context, storage, resolveIndex, executor, ioExecutor, callback, uris, filter,
+                                resolveConcurrency);
                         return;
 
                     } else {
                         L.d(Belvedere.LOG_TAG, "Resolving items turned off");
-                        for(Uri uri : uris) {
-                            final MediaResult mediaResult = Storage.getMediaResultForUri(context, uri);
-                            result.add(mediaResult);
-                        }
+                        loadMetadata(context, uris, callback, filter);
+                        return;
                     }
                 }
 
             } else {
                 // path in registry
                 L.d(Belvedere.LOG_TAG, String.format(Locale.US, "Parsing activity result - Camera - Ok: %s", (resultCode == Activity.RESULT_OK)));
+                processCameraResult(context, requestCode, resultCode, belvedereResult, callback);
+                return;
+            }
+        }
 
-                int permission = Intent.FLAG_GRANT_WRITE_URI_PERMISSION | Intent.FLAG_GRANT_READ_URI_PERMISSION;
-                storage.revokePermissionsFromUri(context, belvedereResult.getUri(), permission);
+        if(callback != null) {
+            callback.internalSuccess(result);
+        }
+    }
 
-                if(resultCode == Activity.RESULT_OK){
-                    final MediaResult r = Storage.getMediaResultForUri(context, belvedereResult.getUri());
-                    result.add(new MediaResult(belvedereResult.getFile(), belvedereResult.getUri(), belvedereResult.getOriginalUri(), belvedereResult.getName(), r.getMimeType(), r.getSize(), r.getWidth(), r.getHeight()));
-                    L.d(Belvedere.LOG_TAG, (String.format(Locale.US, "Image from camera: %s", belvedereResult.getFile())));
+    /**
+     * Query the metadata of the selected items without copying them. Providers are queried and
+     * items without a mime type are sniffed, so it happens on the background {@link Executor}.
+     *
+     * @param context A valid application {@link Context}
+     * @param uris The {@link Uri}s of the selected items
+     * @param callback Callback that will deliver a list of {@link MediaResult}
+     * @param filter Items that don't pass the {@link MediaFilter} are dropped
+     */
+    private void loadMetadata(final Context context, final List<Uri> uris,
+                              final Callback<List<MediaResult>> callback, final MediaFilter filter) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<MediaResult> result = new ArrayList<>();
+
+                final MediaMetadata[] metadata = MediaMetadata.loadAll(context, uris.toArray(new Uri[uris.size()]));
+                for(MediaMetadata m : metadata) {
+                    MediaResult mediaResult = m.toMediaResult();
+
+                    if(mediaResult.getSize() == MediaResult.UNKNOWN_VALUE && filter.limitsSize()) {
+                        // nothing gets copied, the file descriptor is the last chance to learn the size
+                        mediaResult = new MediaResult(null, mediaResult.getUri(), mediaResult.getOriginalUri(),
+                                mediaResult.getName(), mediaResult.getMimeType(), getLength(context, mediaResult.getUri()),
+                                mediaResult.getWidth(), mediaResult.getHeight());
+                    }
+
+                    if(filter.accepts(mediaResult)) {
+                        result.add(mediaResult);
+                    } else if(callback instanceof ResolveCallback) {
+                        ((ResolveCallback) callback).internalItemRejected(mediaResult);
+                    }
                 }
 
-                intentRegistry.freeSlot(requestCode);
+                if(callback != null) {
+                    callback.internalSuccess(result);
+                }
             }
-        }
+        });
+    }
 
-        if(callback != null) {
-            callback.internalSuccess(result);
+    /**
+     * Get the length of the media behind an {@link Uri} from its file descriptor.
+     *
+     * @return The length in bytes or {@link MediaResult#UNKNOWN_VALUE}
+     */
+    private static long getLength(Context context, Uri uri) {
+        AssetFileDescriptor assetFileDescriptor = null;
+        try {
+            assetFileDescriptor = context.getContentResolver().openAssetFileDescriptor(uri, "r");
+            if(assetFileDescriptor != null && assetFileDescriptor.getLength() >= 0) {
+                return assetFileDescriptor.getLength();
+            }
+        } catch (FileNotFoundException e) {
+            L.d(Belvedere.LOG_TAG, String.format(Locale.US, "Unable to open file descriptor, uri: %s", uri));
+        } catch (SecurityException e) {
+            L.d(Belvedere.LOG_TAG, String.format(Locale.US, "No access to file descriptor, uri: %s", uri));
+        } finally {
+            if(assetFileDescriptor != null) {
+                try {
+                    assetFileDescriptor.close();
+                } catch (IOException e) {
+                    // intentionally empty
+                }
+            }
         }
+
+        return MediaResult.UNKNOWN_VALUE;
     }
 
     /**
-     * Check if the provided {@link Intent} can be handled by an installed app.
+     * The captured image is only complete once the camera app returns. Revoking the permissions
+     * of the camera app and reading the size and dimensions of the image happens on the
+     * background {@link Executor}.
      *
-     * @param intent The {@link Intent} to check
      * @param context A valid application {@link Context}
-     * @return True if the system is able to handle the provided {@link Intent}
-     *      False if not
+     * @param requestCode The requestCode of the camera request
+     * @param resultCode The resultCode provided by {@link Activity#onActivityResult(int, int, Intent)}
+     * @param belvedereResult The pending {@link MediaResult} from the {@link IntentRegistry}
+     * @param callback Callback that will deliver a list of {@link MediaResult}
+     */
+    private void processCameraResult(final Context context, final int requestCode, final int resultCode,
+                                     final MediaResult belvedereResult, final Callback<List<MediaResult>> callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<MediaResult> result = new ArrayList<>();
+
+                int permission = Intent.FLAG_GRANT_WRITE_URI_PERMISSION | Intent.FLAG_GRANT_READ_URI_PERMISSION;
+                storage.revokePermissionsFromUri(context, belvedereResult.getUri(), permission);
+
+                if(resultCode == Activity.RESULT_OK){
+                    final File file = belvedereResult.getFile();
+
+                    final ImageHeader header = BitmapUtils.parseHeader(file);
+
+                    final long width = header != null ? header.getWidth() : MediaResult.UNKNOWN_VALUE;
+                    final long height = header != null ? header.getHeight() : MediaResult.UNKNOWN_VALUE;
+                    final int orientation = header != null ? header.getRotation() : (int) MediaResult.UNKNOWN_VALUE;
+                    final long size = file.isFile() ? file.length() : MediaResult.UNKNOWN_VALUE;
+
+                    final String mimeType = getCameraMimeType(context, belvedereResult);
+
+                    result.add(new MediaResult(file, belvedereResult.getUri(), belvedereResult.getOriginalUri(), belvedereResult.getName(),
+                            mimeType, size, width, height, MediaResult.COPY_MODE_NONE, orientation));
+                    L.d(Belvedere.LOG_TAG, (String.format(Locale.US, "Image from camera: %s - Size: %d - Dimensions: %dx%d", file, size, width, height)));
+                }
+
+                intentRegistry.freeSlot(requestCode);
+
+                if(resultCode == Activity.RESULT_OK) {
+                    storage.onFileWritten(belvedereResult.getFile());
+                }
+
+                if(callback != null) {
+                    callback.internalSuccess(result);
+                }
+            }
+        });
+    }
+
+    /**
+     * A pending camera result that was restored after the process died has no mime type.
+     * It's sniffed from the captured image, or derived from the file name.
      */
-    private boolean isIntentResolvable(Intent intent, Context context) {
-        PackageManager manager = context.getPackageManager();
-        List<ResolveInfo> infos = manager.queryIntentActivities(intent, 0);
-        return infos.size() > 0;
+    private static String getCameraMimeType(Context context, MediaResult belvedereResult) {
+        if (belvedereResult.getMimeType() != null) {
+            return belvedereResult.getMimeType();
+        }
+
+        final String sniffedMimeType = MimeTypeSniffer.sniff(context, Uri.fromFile(belvedereResult.getFile()));
+        if (sniffedMimeType != null) {
+            return sniffedMimeType;
+        }
+
+        return MimeTypeMap.getSingleton().getMimeTypeFromExtension(CAMERA_IMG_EXTENSION);
     }
 
     /**
@@ -288,8 +375,10 @@ class MediaSource {
                 PermissionUtil.hasPermissionInManifest(context, Manifest.permission.CAMERA) &&
                 !PermissionUtil.isPermissionGranted(context, Manifest.permission.CAMERA);
 
-        final MediaResult r = Storage.getMediaResultForUri(context, uriForFile);
-        final MediaResult belvedereResult = new MediaResult(imagePath, uriForFile, uriForFile, imagePath.getName(), r.getMimeType(), r.getSize(), r.getWidth(), r.getHeight());
+        // the camera app didn't write the image yet, there's nothing to ask the provider
+        final String mimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(CAMERA_IMG_EXTENSION);
+        final MediaResult belvedereResult = new MediaResult(imagePath, uriForFile, uriForFile, imagePath.getName(), mimeType,
+                MediaResult.UNKNOWN_VALUE, MediaResult.UNKNOWN_VALUE, MediaResult.UNKNOWN_VALUE);
         final MediaIntent mediaIntent = new MediaIntent(
                 requestCode,
                 intent,
@@ -309,7 +398,7 @@ class MediaSource {
      * @return An {@link MediaIntent}
      */
     @TargetApi(Build.VERSION_CODES.KITKAT)
-    private Intent getDocumentAndroidIntent(String contentType, boolean allowMultiple, List<String> additionalTypes) {
+    static Intent getDocumentAndroidIntent(String contentType, boolean allowMultiple, List<String> additionalTypes) {
         final Intent intent;
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
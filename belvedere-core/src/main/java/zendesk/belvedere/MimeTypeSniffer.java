@@ -0,0 +1,173 @@
+package zendesk.belvedere;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * Detects the mime type of media by the magic bytes at the start of its content.
+ * <p>
+ * Only used if the provider doesn't know the mime type. Names can't be trusted, e.g.
+ * HEIC images are often named {@code .jpg}, and some have no extension at all.
+ * </p>
+ */
+class MimeTypeSniffer {
+
+    static final int HEADER_SIZE = 16;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private MimeTypeSniffer() {
+        // intentionally empty
+    }
+
+    /**
+     * Read the first bytes behind an {@link Uri} and detect the mime type.
+     *
+     * @param context A valid application {@link Context}
+     * @param uri     An {@link Uri}
+     * @return The mime type, or {@code null} if it's unknown or the {@link Uri} can't be read
+     */
+    static String sniff(Context context, Uri uri) {
+        InputStream inputStream = null;
+        try {
+            inputStream = context.getContentResolver().openInputStream(uri);
+            if (inputStream == null) {
+                return null;
+            }
+
+            final byte[] header = new byte[HEADER_SIZE];
+            int length = 0;
+            int read;
+            while (length < header.length && (read = inputStream.read(header, length, header.length - length)) != -1) {
+                length += read;
+            }
+
+            final String mimeType = sniff(header, length);
+            L.d(Belvedere.LOG_TAG, String.format(Locale.US, "Sniffed mime type - Uri: %s - Mime type: %s", uri, mimeType));
+            return mimeType;
+
+        } catch (FileNotFoundException e) {
+            L.w(Belvedere.LOG_TAG, String.format(Locale.US, "Unable to sniff mime type, file not found: %s", uri));
+
+        } catch (IOException e) {
+            L.w(Belvedere.LOG_TAG, String.format(Locale.US, "Unable to sniff mime type: %s", uri));
+
+        } catch (SecurityException e) {
+            L.w(Belvedere.LOG_TAG, String.format(Locale.US, "Unable to sniff mime type, no access: %s", uri));
+
+        } finally {
+            close(inputStream);
+        }
+
+        return null;
+    }
+
+    /**
+     * Detect the mime type from the first bytes of some content.
+     *
+     * @param header The first bytes, at most {@link #HEADER_SIZE} are looked at
+     * @param length The number of valid bytes in {@code header}
+     * @return The mime type, or {@code null} if it's unknown
+     */
+    static String sniff(byte[] header, int length) {
+        if (startsWith(header, length, 0xFF, 0xD8, 0xFF)) {
+            return "image/jpeg";
+
+        } else if (startsWith(header, length, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return "image/png";
+
+        } else if (matches(header, length, 0, "GIF87a") || matches(header, length, 0, "GIF89a")) {
+            return "image/gif";
+
+        } else if (matches(header, length, 0, "RIFF") && matches(header, length, 8, "WEBP")) {
+            return "image/webp";
+
+        } else if (matches(header, length, 0, "BM")) {
+            return "image/bmp";
+
+        } else if (matches(header, length, 4, "ftyp")) {
+            return getMimeTypeForBrand(header, length);
+
+        } else if (matches(header, length, 0, "%PDF-")) {
+            return "application/pdf";
+
+        } else if (startsWith(header, length, 0x1A, 0x45, 0xDF, 0xA3)) {
+            return "video/webm";
+        }
+
+        return null;
+    }
+
+    /**
+     * HEIF, AVIF and MP4 share a container, the major brand tells them apart.
+     */
+    private static String getMimeTypeForBrand(byte[] header, int length) {
+        if (length < 12) {
+            return null;
+        }
+
+        final String brand = new String(header, 8, 4, ASCII);
+        if ("heic".equals(brand) || "heix".equals(brand) || "heim".equals(brand) || "heis".equals(brand)) {
+            return "image/heic";
+
+        } else if ("mif1".equals(brand) || "msf1".equals(brand)) {
+            return "image/heif";
+
+        } else if ("avif".equals(brand) || "avis".equals(brand)) {
+            return "image/avif";
+
+        } else if ("qt  ".equals(brand)) {
+            return "video/quicktime";
+
+        } else if (brand.startsWith("3gp")) {
+            return "video/3gpp";
+        }
+
+        return "video/mp4";
+    }
+
+    private static boolean startsWith(byte[] header, int length, int... signature) {
+        if (length < signature.length) {
+            return false;
+        }
+
+        for (int i = 0; i < signature.length; i++) {
+            if ((header[i] & 0xFF) != signature[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean matches(byte[] header, int length, int offset, String signature) {
+        if (length < offset + signature.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < signature.length(); i++) {
+            if (header[offset + i] != signature.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // intentionally empty
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package zendesk.belvedere;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+/**
+ * Background task for deleting files from the Belvedere cache.
+ * <p>
+ * The directory trees are walked and deleted in batches of {@link #BATCH_SIZE} operations.
+ * After every batch the task hands its thread back to the {@link Executor} and schedules
+ * the next batch, so a large cache doesn't block other background work for long.
+ * </p>
+ * <p>
+ * If a maximum age is provided, only files that weren't modified within that time are
+ * deleted and the directories are kept. Otherwise the provided directories are deleted
+ * completely.
+ * </p>
+ * <p>
+ * The number of deleted files is delivered to the {@link Callback}. Canceling the task
+ * stops it after the current batch.
+ * </p>
+ */
+class PurgeTask implements Cancelable {
+
+    static final long ALL_FILES = 0L;
+
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * Start deleting files.
+     *
+     * @param storage  {@link Storage} that's informed about every deleted file
+     * @param roots    The directories to purge
+     * @param maxAge   Files older than this, in milliseconds, are deleted or {@link #ALL_FILES}
+     * @param executor {@link Executor} that runs the batches
+     * @param callback {@link Callback} that gets the number of deleted files, might be {@code null}
+     * @return A {@link Cancelable} that stops the task
+     */
+    static Cancelable start(Storage storage, List<File> roots, long maxAge, Executor executor,
+                            Callback<Integer> callback) {
+        final long deadline = maxAge == ALL_FILES ? ALL_FILES : System.currentTimeMillis() - maxAge;
+        final PurgeTask purgeTask = new PurgeTask(storage, roots, deadline, executor, callback);
+        purgeTask.scheduleBatch();
+        return purgeTask;
+    }
+
+    private final Storage storage;
+    private final long deadline;
+    private final Executor executor;
+    private final WeakReference<Callback<Integer>> callback;
+
+    private final Deque<File> pendingDirs;
+    private final Deque<File> pendingFiles;
+    private final List<File> visitedDirs;
+
+    private volatile boolean canceled;
+    private int deletedFiles;
+
+    private PurgeTask(Storage storage, List<File> roots, long deadline, Executor executor, Callback<Integer> callback) {
+        this.storage = storage;
+        this.deadline = deadline;
+        this.executor = executor;
+        this.callback = new WeakReference<>(callback);
+        this.pendingDirs = new ArrayDeque<>(roots);
+        this.pendingFiles = new ArrayDeque<>();
+        this.visitedDirs = new ArrayList<>();
+        this.canceled = false;
+        this.deletedFiles = 0;
+    }
+
+    @Override
+    public void cancel() {
+        canceled = true;
+
+        final Callback<Integer> callback = this.callback.get();
+        if (callback != null) {
+            callback.cancel();
+        }
+    }
+
+    /**
+     * Unlike a resolve, a purge without a {@link Callback} keeps running. Nobody is
+     * waiting for the result, but the files should be deleted anyway.
+     */
+    @Override
+    public boolean isCanceled() {
+        if (canceled) {
+            return true;
+        }
+
+        final Callback<Integer> callback = this.callback.get();
+        return callback != null && callback.isCanceled();
+    }
+
+    private void scheduleBatch() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (isCanceled()) {
+                    L.d(Belvedere.LOG_TAG, String.format(Locale.US, "Purge canceled - Deleted files: %d", deletedFiles));
+                    return;
+                }
+
+                if (runBatch()) {
+                    scheduleBatch();
+                } else {
+                    onPostExecute();
+                }
+            }
+        });
+    }
+
+    /**
+     * Batches run one after another, never in parallel.
+     *
+     * @return {@code true} if there's work left
+     */
+    private boolean runBatch() {
+        int operations = 0;
+
+        while (operations < BATCH_SIZE) {
+            if (!pendingFiles.isEmpty()) {
+                deleteFile(pendingFiles.poll());
+
+            } else if (!pendingDirs.isEmpty()) {
+                listDirectory(pendingDirs.poll());
+
+            } else {
+                break;
+            }
+
+            operations++;
+        }
+
+        if (!pendingFiles.isEmpty() || !pendingDirs.isEmpty()) {
+            return true;
+        }
+
+        if (deadline == ALL_FILES) {
+            // children come after their parents
+            for (int i = visitedDirs.size() - 1; i >= 0; i--) {
+                delete(visitedDirs.get(i));
+            }
+        }
+
+        return false;
+    }
+
+    private void listDirectory(File dir) {
+        final File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+
+        visitedDirs.add(dir);
+        for (File child : children) {
+            if (child.isDirectory()) {
+                pendingDirs.add(child);
+            } else {
+                pendingFiles.add(child);
+            }
+        }
+    }
+
+    private void deleteFile(File file) {
+        if (deadline != ALL_FILES && file.lastModified() >= deadline) {
+            return;
+        }
+
+        storage.onFileRemoved(file);
+        if (delete(file)) {
+            deletedFiles++;
+        }
+    }
+
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private static boolean delete(File file) {
+        return file.delete();
+    }
+
+    private void onPostExecute() {
+        L.d(Belvedere.LOG_TAG, String.format(Locale.US, "Purge finished - Deleted files: %d", deletedFiles));
+
+        final Callback<Integer> callback = this.callback.get();
+        if (callback != null) {
+            callback.internalSuccess(deletedFiles);
+        }
+    }
+}
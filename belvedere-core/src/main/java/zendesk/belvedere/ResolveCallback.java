@@ -0,0 +1,96 @@
+package zendesk.belvedere;
+
+import android.net.Uri;
+
+import java.util.List;
+
+/**
+ * {@link Callback} used to deliver resolved files one by one.
+ *
+ * <p>
+ *     Pass it to {@link Belvedere#resolveUris(List, String, Callback)} or
+ *     {@link Belvedere#getFilesFromActivityOnResult(int, int, android.content.Intent, Callback)}
+ *     to get every {@link MediaResult} as soon as its file was copied into the internal cache,
+ *     together with the progress of the running copies. {@link #success(Object)} still
+ *     delivers the complete list, in the order of the selected files, once all copies are done.
+ * </p>
+ * <p>
+ *     Files are copied in parallel, {@link #itemResolved(MediaResult)} is invoked in the order
+ *     the copies finish.
+ * </p>
+ */
+public abstract class ResolveCallback extends Callback<List<MediaResult>> {
+
+    /**
+     * Invoked as soon as a single file was copied into the internal cache.
+     * <p>
+     *     Will be invoked on the main thread.
+     * </p>
+     *
+     * @param result The resolved file.
+     */
+    public void itemResolved(MediaResult result) {
+        // Intentionally empty
+    }
+
+    /**
+     * Invoked while a file gets copied into the internal cache.
+     * <p>
+     *     Will be invoked on the main thread.
+     * </p>
+     *
+     * @param uri The {@link Uri} of the file that gets copied.
+     * @param bytesCopied Number of bytes copied so far.
+     * @param totalBytes Size of the file or {@link MediaResult#UNKNOWN_VALUE} if the
+     *                   provider doesn't know it.
+     */
+    public void progress(Uri uri, long bytesCopied, long totalBytes) {
+        // Intentionally empty
+    }
+
+    /**
+     * Invoked for every selected file that doesn't pass the {@link MediaFilter}. The file
+     * isn't copied and won't be part of the list delivered by {@link #success(Object)}.
+     * <p>
+     *     Will be invoked on the main thread.
+     * </p>
+     *
+     * @param metadata Metadata of the rejected file, as reported by its provider.
+     */
+    public void itemRejected(MediaResult metadata) {
+        // Intentionally empty
+    }
+
+    void internalItemResolved(final MediaResult result) {
+        if (!isCanceled()) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    ResolveCallback.this.itemResolved(result);
+                }
+            });
+        }
+    }
+
+    void internalProgress(final Uri uri, final long bytesCopied, final long totalBytes) {
+        if (!isCanceled()) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    ResolveCallback.this.progress(uri, bytesCopied, totalBytes);
+                }
+            });
+        }
+    }
+
+    void internalItemRejected(final MediaResult metadata) {
+        if (!isCanceled()) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    ResolveCallback.this.itemRejected(metadata);
+                }
+            });
+        }
+    }
+}
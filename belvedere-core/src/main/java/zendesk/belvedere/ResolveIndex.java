@@ -0,0 +1,263 @@
+package zendesk.belvedere;
+
+import android.net.Uri;
+import android.text.TextUtils;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Persistent index of {@link Uri}s that were already copied into Belvedere's cache.
+ * <p>
+ * Entries are keyed by the source {@link Uri}, its size, its last modified date and
+ * the directory it was copied into. If the same media gets resolved again, the file in
+ * the cache can be used instead of copying it one more time.
+ * </p>
+ * <p>
+ * The index lives next to Belvedere's cache directory as an append-only log, every line
+ * either maps a key to a file or, with an empty path, removes the key. The log is loaded
+ * lazily on first use and compacted once it contains too many stale lines.
+ * </p>
+ */
+class ResolveIndex {
+
+    private final static String INDEX_FILE = "belvedere-resolve-index-v2";
+    private final static String SEPARATOR = "\t";
+    private final static int COMPACTION_THRESHOLD = 64;
+
+    private final File indexFile;
+    private final Map<String, String> filesByKey;
+    private final Map<String, String> keysByFile;
+
+    private boolean loaded;
+    private int logLines;
+
+    ResolveIndex(File cacheDir) {
+        this.indexFile = new File(cacheDir, INDEX_FILE);
+        this.filesByKey = new HashMap<>();
+        this.keysByFile = new HashMap<>();
+        this.loaded = false;
+        this.logLines = 0;
+    }
+
+    /**
+     * Look up a previously copied file.
+     *
+     * @param uri          The source {@link Uri}
+     * @param subDirectory The directory the file was copied into or {@code null}
+     * @param size         Size of the source
+     * @param lastModified Last modified date of the source
+     * @return The {@link File} in the cache or {@code null} if the media has to be copied
+     */
+    File get(Uri uri, String subDirectory, long size, long lastModified) {
+        final String key = getKey(uri, subDirectory, size, lastModified);
+        if (key == null) {
+            return null;
+        }
+
+        synchronized (this) {
+            ensureLoaded();
+
+            final String path = filesByKey.get(key);
+            if (path == null) {
+                return null;
+            }
+
+            final File file = new File(path);
+            if (file.isFile() && file.length() == size) {
+                return file;
+            }
+
+            L.d(Belvedere.LOG_TAG, String.format(Locale.US, "Dropping stale index entry - Uri: %s - File: %s", uri, file));
+            remove(file);
+            return null;
+        }
+    }
+
+    /**
+     * Remember that the source {@link Uri} was copied into the provided {@link File}.
+     */
+    void put(Uri uri, String subDirectory, long size, long lastModified, File file) {
+        final String key = getKey(uri, subDirectory, size, lastModified);
+        final String path = file.getAbsolutePath();
+        if (key == null || !isValidField(path)) {
+            return;
+        }
+
+        synchronized (this) {
+            ensureLoaded();
+            remove(file);
+            putInternal(key, path);
+            append(key, path);
+        }
+    }
+
+    /**
+     * Forget about the provided {@link File}. Has to be called before the
+     * content of a file in the cache gets replaced.
+     */
+    void remove(File file) {
+        final String path = file.getAbsolutePath();
+
+        synchronized (this) {
+            ensureLoaded();
+            final String key = keysByFile.remove(path);
+            if (key != null) {
+                filesByKey.remove(key);
+                append(key, "");
+            }
+        }
+    }
+
+    /**
+     * Forget about all files.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    void clear() {
+        synchronized (this) {
+            filesByKey.clear();
+            keysByFile.clear();
+            logLines = 0;
+            loaded = true;
+            indexFile.delete();
+        }
+    }
+
+    private void putInternal(String key, String path) {
+        final String oldPath = filesByKey.put(key, path);
+        if (oldPath != null) {
+            keysByFile.remove(oldPath);
+        }
+        keysByFile.put(path, key);
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        if (!indexFile.isFile()) {
+            return;
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), "UTF-8"));
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                logLines++;
+                final int separator = line.lastIndexOf(SEPARATOR);
+                if (separator == -1) {
+                    continue;
+                }
+
+                final String key = line.substring(0, separator);
+                final String path = line.substring(separator + 1);
+
+                if (path.length() > 0) {
+                    putInternal(key, path);
+                } else {
+                    final String oldPath = filesByKey.remove(key);
+                    if (oldPath != null) {
+                        keysByFile.remove(oldPath);
+                    }
+                }
+            }
+
+            L.d(Belvedere.LOG_TAG, String.format(Locale.US, "Resolve index loaded - Entries: %d", filesByKey.size()));
+
+        } catch (IOException e) {
+            L.e(Belvedere.LOG_TAG, "Error reading resolve index", e);
+
+        } finally {
+            close(reader);
+        }
+    }
+
+    private void append(String key, String path) {
+        if (logLines > COMPACTION_THRESHOLD && logLines > filesByKey.size() * 2) {
+            compact();
+            return;
+        }
+
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(indexFile, true), "UTF-8");
+            writer.write(key + SEPARATOR + path + "\n");
+            logLines++;
+
+        } catch (IOException e) {
+            L.e(Belvedere.LOG_TAG, "Error writing resolve index", e);
+
+        } finally {
+            close(writer);
+        }
+    }
+
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private void compact() {
+        final File tmpFile = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8");
+            for (Map.Entry<String, String> entry : filesByKey.entrySet()) {
+                writer.write(entry.getKey() + SEPARATOR + entry.getValue() + "\n");
+            }
+            writer.close();
+            writer = null;
+
+            if (tmpFile.renameTo(indexFile)) {
+                logLines = filesByKey.size();
+            } else {
+                tmpFile.delete();
+            }
+
+        } catch (FileNotFoundException e) {
+            L.e(Belvedere.LOG_TAG, "Error compacting resolve index", e);
+
+        } catch (IOException e) {
+            L.e(Belvedere.LOG_TAG, "Error compacting resolve index", e);
+
+        } finally {
+            close(writer);
+        }
+    }
+
+    private static String getKey(Uri uri, String subDirectory, long size, long lastModified) {
+        if (size == MediaResult.UNKNOWN_VALUE || lastModified == MediaResult.UNKNOWN_VALUE) {
+            return null;
+        }
+
+        final String directory = TextUtils.isEmpty(subDirectory) ? "" : subDirectory;
+        final String key = String.format(Locale.US, "%s|%d|%d|%s", directory, size, lastModified, uri);
+        return isValidField(key) ? key : null;
+    }
+
+    private static boolean isValidField(String field) {
+        return !field.contains(SEPARATOR) && !field.contains("\n");
+    }
+
+    private static void close(Closeable closeable) {
+        try {
+            if (closeable != null) {
+                closeable.close();
+            }
+        } catch (IOException e) {
+            L.e(Belvedere.LOG_TAG, "Error closing resolve index", e);
+        }
+    }
+}
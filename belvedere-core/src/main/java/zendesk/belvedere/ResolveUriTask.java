@@ -2,122 +2,544 @@ package zendesk.belvedere;
 
 import android.content.ContentResolver;
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.net.Uri;
-import android.os.AsyncTask;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * AsyncTask for resolving {@link Uri} to {@link File}
+ * Background task for resolving {@link Uri} to {@link File}
  * <p>
- * We try to open an {@link InputStream} from an {@link Uri}
- * by calling {@link ContentResolver#openInputStream(Uri)}.
- * If an {@link InputStream} was successfully opened, the file will
- * be copied into the private cache of the app.
+ * If the {@link ContentResolver} hands out a seekable file descriptor for an {@link Uri},
+ * the file will be transferred into the private cache of the app through {@link FileChannel}s.
+ * Otherwise we try to open an {@link InputStream} by calling {@link ContentResolver#openInputStream(Uri)}
+ * and copy the file into the private cache.
+ * </p>
+ * <p>
+ * The metadata of all {@link Uri}s is fetched on the background {@link Executor}, the
+ * copies run on the I/O {@link Executor}. Up to {@code concurrency} files are copied at
+ * the same time. Every worker picks the next pending {@link Uri} until all of them are
+ * done, results are delivered in the order of the provided {@link Uri}s.
+ * </p>
+ * <p>
+ * A {@link ResolveCallback} additionally gets every single result as soon as
+ * its copy is done and the progress of the running copies.
+ * </p>
+ * <p>
+ * Files that don't pass the {@link MediaFilter} are skipped before copying them.
+ * </p>
+ * <p>
+ * Canceling the task, or the {@link Callback}, stops all copies after the current
+ * chunk and removes the incomplete files from the cache.
+ * </p>
+ * <p>
+ * Every copied file is recorded in the {@link ResolveIndex}. If the same media, with
+ * the same size and last modified date, is resolved into the same directory again,
+ * the file in the cache is handed out without copying it another time.
+ * </p>
+ * <p>
+ * With content addressed storage turned on, the bytes are hashed while they're copied
+ * and files with the same content share their bytes on disk, see {@link Storage#deduplicate(Context, File, byte[])}.
  * </p>
  */
-class ResolveUriTask extends AsyncTask<Uri, Void, List<MediaResult>> {
+class ResolveUriTask implements Cancelable {
+
+    private static final int BUFFER_SIZE = 1_048_576;
+    private static final String MIME_TYPE_IMAGE = "image/";
 
-    static void start(Context context, Storage storage,
-                      Callback<List<MediaResult>> callback, List<Uri> uriList){
-        start(context, storage, callback, uriList, null);
+    static Cancelable start(Context context, Storage storage, ResolveIndex index, Executor executor, Executor ioExecutor,
+                            Callback<List<MediaResult>> callback, List<Uri> uriList, MediaFilter filter, int concurrency) {
+        return start(context, storage, index, executor, ioExecutor, callback, uriList, null, filter, concurrency);
     }
 
-    static void start(Context context, Storage storage,
-                      Callback<List<MediaResult>> callback, List<Uri> uriList, String subDirectory){
-        final ResolveUriTask resolveUriTask = new ResolveUriTask(context, storage, callback, subDirectory);
+    static Cancelable start(Context context, Storage storage, ResolveIndex index, Executor executor, Executor ioExecutor,
+                            Callback<List<MediaResult>> callback, List<Uri> uriList, String subDirectory,
+                            MediaFilter filter, int concurrency) {
         final Uri[] uris = uriList.toArray(new Uri[uriList.size()]);
-        resolveUriTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, uris);
+        final int workers = Math.max(1, Math.min(concurrency, uris.length));
+        final ResolveUriTask resolveUriTask = new ResolveUriTask(context, storage, index, callback, uris, subDirectory,
+                filter, workers);
+        resolveUriTask.execute(executor, ioExecutor);
+        return resolveUriTask;
     }
 
     private final WeakReference<Callback<List<MediaResult>>> callback;
     private final Context context;
     private final Storage storage;
+    private final ResolveIndex index;
     private final String subDirectory;
+    private final MediaFilter filter;
+    private final Uri[] uris;
+    private final MediaResult[] results;
+    private MediaMetadata[] metadata;
+    private final Set<File> reservedFiles;
+    private final AtomicInteger nextIndex;
+    private final AtomicInteger activeWorkers;
 
-    private ResolveUriTask(Context context, Storage storage,
-                           Callback<List<MediaResult>> callback, String subDirectory) {
+    private volatile boolean canceled;
+
+    private ResolveUriTask(Context context, Storage storage, ResolveIndex index, Callback<List<MediaResult>> callback,
+                           Uri[] uris, String subDirectory, MediaFilter filter, int workers) {
         this.context = context;
         this.storage = storage;
+        this.index = index;
         this.subDirectory = subDirectory;
+        this.filter = filter;
         this.callback = new WeakReference<>(callback);
+        this.uris = uris;
+        this.results = new MediaResult[uris.length];
+        this.reservedFiles = new HashSet<>(uris.length);
+        this.nextIndex = new AtomicInteger(0);
+        this.activeWorkers = new AtomicInteger(workers);
+        this.canceled = false;
     }
 
     @Override
-    protected List<MediaResult> doInBackground(Uri... uris) {
-        final List<MediaResult> success = new ArrayList<>();
+    public void cancel() {
+        canceled = true;
 
-        final byte[] buf = new byte[1_048_576];
-        InputStream inputStream = null;
-        FileOutputStream fileOutputStream = null;
+        final Callback<List<MediaResult>> callback = this.callback.get();
+        if (callback != null) {
+            callback.cancel();
+        }
+    }
 
-        for (Uri uri : uris) {
-            try {
-                inputStream = context.getContentResolver().openInputStream(uri);
-                final File file = storage.getFileForUri(context, uri, subDirectory);
-
-                if (inputStream != null && file != null) {
-                    L.d(Belvedere.LOG_TAG, String.format(Locale.US, "Copying media file into private cache - Uri: %s - Dest: %s", uri, file));
-                    fileOutputStream = new FileOutputStream(file);
-
-                    int len;
-                    while ((len = inputStream.read(buf)) > 0) {
-                        fileOutputStream.write(buf, 0, len);
-                    }
-
-                    final MediaResult r = Storage.getMediaResultForUri(context, uri);
-                    success.add(new MediaResult(file, storage.getFileProviderUri(context, file), uri, file.getName(), r.getMimeType(), r.getSize(), r.getWidth(), r.getHeight()));
-
-                } else {
-                    L.w(
-                            Belvedere.LOG_TAG,
-                            String.format(
-                                    Locale.US,
-                                    "Unable to resolve uri. InputStream null = %s, File null = %s",
-                                    (inputStream == null), (file == null)
-                            )
-                    );
+    /**
+     * The task is canceled if {@link #cancel()} was called, the {@link Callback} got canceled or
+     * there's no {@link Callback} left to deliver the results to.
+     */
+    @Override
+    public boolean isCanceled() {
+        if (canceled) {
+            return true;
+        }
+
+        final Callback<List<MediaResult>> callback = this.callback.get();
+        return callback == null || callback.isCanceled();
+    }
+
+    /**
+     * Fetch the metadata of the whole batch on the {@code executor}, then
+     * start copying the files on the {@code ioExecutor}.
+     */
+    private void execute(Executor executor, final Executor ioExecutor) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!isCanceled()) {
+                    metadata = MediaMetadata.loadAll(context, uris);
+                }
+
+                for (int i = 0, workers = activeWorkers.get(); i < workers; i++) {
+                    ioExecutor.execute(new Worker());
+                }
+            }
+        });
+    }
+
+    private class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            final byte[] buf = new byte[BUFFER_SIZE];
+
+            int index;
+            while (!isCanceled() && (index = nextIndex.getAndIncrement()) < uris.length) {
+                results[index] = resolve(uris[index], metadata[index], buf);
+            }
+
+            // the last worker that runs out of work delivers the batch
+            if (activeWorkers.decrementAndGet() == 0) {
+                onPostExecute();
+            }
+        }
+    }
+
+    /**
+     * Create the {@link MediaResult} of a resolved file. Providers outside of the {@link android.provider.MediaStore}
+     * rarely know the dimensions of an image, they are read from the header of the local copy instead,
+     * together with the orientation.
+     */
+    private MediaResult createResult(File file, Uri uri, MediaResult r, int copyMode) {
+        long width = r.getWidth();
+        long height = r.getHeight();
+        int orientation = (int) MediaResult.UNKNOWN_VALUE;
+
+        if (r.getMimeType() != null && r.getMimeType().startsWith(MIME_TYPE_IMAGE)) {
+            final ImageHeader header = BitmapUtils.parseHeader(file);
+            if (header != null) {
+                orientation = header.getRotation();
+                if (width == MediaResult.UNKNOWN_VALUE || height == MediaResult.UNKNOWN_VALUE) {
+                    width = header.getWidth();
+                    height = header.getHeight();
                 }
+            }
+        }
+
+        return new MediaResult(file, storage.getFileProviderUri(context, file), uri, file.getName(),
+                r.getMimeType(), r.getSize(), width, height, copyMode, orientation);
+    }
+
+    private MediaResult resolve(Uri uri, MediaMetadata metadata, byte[] buf) {
+        final MediaResult r = metadata.toMediaResult();
+
+        if (!filter.accepts(r)) {
+            L.d(Belvedere.LOG_TAG, String.format(Locale.US, "Media rejected by filter, not copying - Uri: %s - Size: %d - Mime: %s",
+                    uri, r.getSize(), r.getMimeType()));
+            notifyItemRejected(r);
+            return null;
+        }
+
+        final long lastModified = metadata.getLastModified();
+
+        final File cachedFile = reserveCachedFile(index.get(uri, subDirectory, r.getSize(), lastModified));
+        if (cachedFile != null && !storage.onFileAccessed(cachedFile)) {
+            // evicted by the disk quota since it was looked up, copy it again
+            releaseFile(cachedFile);
+        } else if (cachedFile != null) {
+            L.d(Belvedere.LOG_TAG, String.format(Locale.US, "Media file already in private cache - Uri: %s - File: %s", uri, cachedFile));
+            final MediaResult result = createResult(cachedFile, uri, r, MediaResult.COPY_MODE_CACHED);
+            notifyItemResolved(result);
+            return result;
+        }
+
+        final File file = reserveFile(storage.getFileForUri(context, metadata, subDirectory));
+
+        if (file == null) {
+            L.w(Belvedere.LOG_TAG, String.format(Locale.US, "Unable to resolve uri. File null, uri: %s", uri));
+            return null;
+        }
+
+        // the content of the file is about to change, unlink it
+        // instead of truncating, it might share its bytes with other files
+        index.remove(file);
+        storage.onFileRemoved(file);
+        deleteFile(file);
+
+        final MessageDigest digest = storage.getContentDigest();
 
+        // copy next to the file and move it in place once it's complete,
+        // so that the disk quota never counts a partial copy
+        final File partialFile = Storage.getPartialFile(file);
+        deleteFile(partialFile);
 
-            } catch (FileNotFoundException e) {
-                L.e(Belvedere.LOG_TAG, String.format(Locale.US, "File not found error copying file, uri: %s", uri), e);
+        try {
+            final int copyMode;
+            if (copyWithChannel(uri, partialFile, r.getSize(), digest, buf)) {
+                copyMode = MediaResult.COPY_MODE_CHANNEL;
+            } else if (copyWithStream(uri, partialFile, r.getSize(), digest, buf)) {
+                copyMode = MediaResult.COPY_MODE_STREAM;
+            } else {
+                deleteFile(partialFile);
+                return null;
+            }
+
+            if (!partialFile.renameTo(file)) {
+                L.w(Belvedere.LOG_TAG, String.format(Locale.US, "Unable to move copy into place, uri: %s - File: %s", uri, file));
+                deleteFile(partialFile);
+                return null;
+            }
+
+            // the provider didn't know the size, check the copy against the filter instead
+            if (r.getSize() == MediaResult.UNKNOWN_VALUE && !filter.acceptsSize(file.length())) {
+                final long size = file.length();
+                L.d(Belvedere.LOG_TAG, String.format(Locale.US, "Media rejected by filter after copying - Uri: %s - Size: %d", uri, size));
+                deleteFile(file);
+                notifyItemRejected(new MediaResult(null, r.getUri(), r.getOriginalUri(), r.getName(), r.getMimeType(),
+                        size, r.getWidth(), r.getHeight()));
+                return null;
+            }
+
+            if (digest != null) {
+                storage.deduplicate(context, file, digest.digest());
+            }
+
+            index.put(uri, subDirectory, r.getSize(), lastModified, file);
+            storage.onFileWritten(file);
+
+            final MediaResult result = createResult(file, uri, r, copyMode);
+            notifyItemResolved(result);
+            return result;
+
+        } catch (InterruptedIOException e) {
+            L.d(Belvedere.LOG_TAG, String.format(Locale.US, "Copying file canceled, uri: %s", uri));
+            deleteFile(partialFile);
+
+        } catch (FileNotFoundException e) {
+            L.e(Belvedere.LOG_TAG, String.format(Locale.US, "File not found error copying file, uri: %s", uri), e);
+            deleteFile(partialFile);
+
+        } catch (IOException e) {
+            L.e(Belvedere.LOG_TAG, String.format(Locale.US, "IO Error copying file, uri: %s", uri), e);
+            deleteFile(partialFile);
+        }
+
+        return null;
+    }
+
+    /**
+     * Copy the media behind the {@link Uri} by transferring it from the file descriptor
+     * of the provider into the destination {@link File}, without moving the bytes through
+     * the Java heap.
+     * <p>
+     * Only works if the provider hands out a seekable file descriptor. Pipe-backed
+     * providers are left to {@link #copyWithStream(Uri, File, long, MessageDigest, byte[])}.
+     * </p>
+     * <p>
+     * If a {@link MessageDigest} is provided the bytes have to be hashed, so they're read
+     * into the buffer and written from there.
+     * </p>
+     *
+     * @return {@code true} if the file was copied, {@code false} if the stream copy should be used
+     * @throws InterruptedIOException if the task got canceled
+     */
+    private boolean copyWithChannel(Uri uri, File file, long totalBytes, MessageDigest digest, byte[] buf)
+            throws InterruptedIOException {
+        final AssetFileDescriptor assetFileDescriptor;
+        try {
+            assetFileDescriptor = context.getContentResolver().openAssetFileDescriptor(uri, "r");
+        } catch (FileNotFoundException e) {
+            return false;
+        } catch (SecurityException e) {
+            return false;
+        }
+
+        if (assetFileDescriptor == null) {
+            return false;
+        }
 
+        FileInputStream inputStream = null;
+        FileOutputStream fileOutputStream = null;
+
+        try {
+            inputStream = assetFileDescriptor.createInputStream();
+            final FileChannel source = inputStream.getChannel();
+            final long start = assetFileDescriptor.getStartOffset();
+
+            try {
+                // pipes and sockets aren't seekable
+                source.position(start);
             } catch (IOException e) {
-                L.e(Belvedere.LOG_TAG, String.format(Locale.US, "IO Error copying file, uri: %s", uri), e);
-
-            } finally {
-                try {
-                    if (inputStream != null) {
-                        inputStream.close();
-                    }
-                } catch (IOException e) {
-                    L.e(Belvedere.LOG_TAG, "Error closing InputStream", e);
+                L.d(Belvedere.LOG_TAG, String.format(Locale.US, "File descriptor not seekable, uri: %s", uri));
+                return false;
+            }
+
+            final long length = assetFileDescriptor.getLength() != AssetFileDescriptor.UNKNOWN_LENGTH
+                    ? assetFileDescriptor.getLength()
+                    : source.size() - start;
+
+            L.d(Belvedere.LOG_TAG, String.format(Locale.US, "Transferring media file into private cache - Uri: %s - Dest: %s", uri, file));
+            fileOutputStream = new FileOutputStream(file);
+            final FileChannel destination = fileOutputStream.getChannel();
+
+            if (digest != null) {
+                digest.reset();
+            }
+
+            long transferred = 0;
+            while (transferred < length) {
+                final long chunk = Math.min(BUFFER_SIZE, length - transferred);
+                final long count = digest == null
+                        ? source.transferTo(start + transferred, chunk, destination)
+                        : transferAndDigest(source, start + transferred, chunk, destination, digest, buf);
+                if (count <= 0) {
+                    break;
                 }
-                try {
-                    if (fileOutputStream != null) {
-                        fileOutputStream.close();
-                    }
-                } catch (IOException e) {
-                    L.e(Belvedere.LOG_TAG, "Error closing FileOutputStream", e);
+                transferred += count;
+                notifyProgress(uri, transferred, totalBytes);
+                throwIfCanceled();
+            }
+
+            if (transferred < length) {
+                L.w(Belvedere.LOG_TAG, String.format(Locale.US, "Incomplete transfer, falling back to stream copy, uri: %s", uri));
+                return false;
+            }
+
+            return true;
+
+        } catch (InterruptedIOException e) {
+            throw e;
+
+        } catch (IOException e) {
+            L.e(Belvedere.LOG_TAG, String.format(Locale.US, "IO Error transferring file, falling back to stream copy, uri: %s", uri), e);
+            return false;
+
+        } finally {
+            close(inputStream != null ? inputStream : assetFileDescriptor);
+            close(fileOutputStream);
+        }
+    }
+
+    private static long transferAndDigest(FileChannel source, long position, long count, FileChannel destination,
+                                          MessageDigest digest, byte[] buf) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(buf, 0, (int) Math.min(count, buf.length));
+        final int read = source.read(buffer, position);
+        if (read <= 0) {
+            return read;
+        }
+
+        digest.update(buf, 0, read);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            destination.write(buffer);
+        }
+        return read;
+    }
+
+    /**
+     * Copy the media behind the {@link Uri} through an {@link InputStream}.
+     *
+     * @return {@code true} if the file was copied, {@code false} if not
+     * @throws InterruptedIOException if the task got canceled
+     */
+    private boolean copyWithStream(Uri uri, File file, long totalBytes, MessageDigest digest, byte[] buf)
+            throws IOException {
+        InputStream inputStream = null;
+        FileOutputStream fileOutputStream = null;
+
+        try {
+            inputStream = context.getContentResolver().openInputStream(uri);
+
+            if (inputStream == null) {
+                L.w(Belvedere.LOG_TAG, String.format(Locale.US, "Unable to resolve uri. InputStream null, uri: %s", uri));
+                return false;
+            }
+
+            L.d(Belvedere.LOG_TAG, String.format(Locale.US, "Copying media file into private cache - Uri: %s - Dest: %s", uri, file));
+            fileOutputStream = new FileOutputStream(file);
+
+            if (digest != null) {
+                digest.reset();
+            }
+
+            long copied = 0;
+            int len;
+            while ((len = inputStream.read(buf)) > 0) {
+                fileOutputStream.write(buf, 0, len);
+                if (digest != null) {
+                    digest.update(buf, 0, len);
                 }
+                copied += len;
+                notifyProgress(uri, copied, totalBytes);
+                throwIfCanceled();
             }
+
+            return true;
+
+        } finally {
+            close(inputStream);
+            close(fileOutputStream);
         }
+    }
 
-        return success;
+    private void throwIfCanceled() throws InterruptedIOException {
+        if (isCanceled()) {
+            throw new InterruptedIOException("Resolving uris canceled");
+        }
     }
 
-    @Override
-    protected void onPostExecute(List<MediaResult> resolvedUris) {
-        super.onPostExecute(resolvedUris);
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private static void deleteFile(File file) {
+        if (file.exists()) {
+            file.delete();
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        try {
+            if (closeable != null) {
+                closeable.close();
+            }
+        } catch (IOException e) {
+            L.e(Belvedere.LOG_TAG, "Error closing " + closeable.getClass().getSimpleName(), e);
+        }
+    }
+
+    /**
+     * Make sure that two {@link Uri}s of the same batch, that share a display name,
+     * don't end up in the same destination {@link File}.
+     */
+    private File reserveFile(File file) {
+        if (file == null) {
+            return null;
+        }
+
+        synchronized (reservedFiles) {
+            File candidate = file;
+            for (int i = 1; !reservedFiles.add(candidate); i++) {
+                candidate = Storage.getIndexedFile(file, i);
+            }
+            return candidate;
+        }
+    }
+
+    /**
+     * Claim a {@link File} from the {@link ResolveIndex} for this batch. Returns {@code null}
+     * if it's already taken by another {@link Uri} of the batch.
+     */
+    private File reserveCachedFile(File file) {
+        if (file == null) {
+            return null;
+        }
+
+        synchronized (reservedFiles) {
+            return reservedFiles.add(file) ? file : null;
+        }
+    }
+
+    private void releaseFile(File file) {
+        synchronized (reservedFiles) {
+            reservedFiles.remove(file);
+        }
+    }
+
+    private void notifyItemResolved(MediaResult result) {
+        final Callback<List<MediaResult>> callback = this.callback.get();
+        if (callback instanceof ResolveCallback) {
+            ((ResolveCallback) callback).internalItemResolved(result);
+        }
+    }
+
+    private void notifyItemRejected(MediaResult metadata) {
+        final Callback<List<MediaResult>> callback = this.callback.get();
+        if (callback instanceof ResolveCallback) {
+            ((ResolveCallback) callback).internalItemRejected(metadata);
+        }
+    }
+
+    private void notifyProgress(Uri uri, long bytesCopied, long totalBytes) {
+        final Callback<List<MediaResult>> callback = this.callback.get();
+        if (callback instanceof ResolveCallback) {
+            ((ResolveCallback) callback).internalProgress(uri, bytesCopied, totalBytes);
+        }
+    }
+
+    private void onPostExecute() {
+        final List<MediaResult> resolvedUris = new ArrayList<>(results.length);
+        for (MediaResult result : results) {
+            if (result != null) {
+                resolvedUris.add(result);
+            }
+        }
+
         final Callback<List<MediaResult>> callback = this.callback.get();
         if (callback != null) {
             callback.internalSuccess(resolvedUris);
@@ -125,4 +547,4 @@ class ResolveUriTask extends AsyncTask<Uri, Void, List<MediaResult>> {
             L.w(Belvedere.LOG_TAG, "Callback null");
         }
     }
-}
\ No newline at end of file
+}
@@ -1,25 +1,37 @@
 package zendesk.belvedere;
 
+import android.annotation.TargetApi;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
+import android.os.FileObserver;
 import android.provider.MediaStore;
+import android.system.ErrnoException;
+import android.system.Os;
 import android.text.TextUtils;
 import android.util.Log;
 import android.webkit.MimeTypeMap;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
-
-import static zendesk.belvedere.MediaResult.UNKNOWN_VALUE;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Internal helper class. Responsible for creating files
@@ -30,14 +42,243 @@ class Storage {
     private final static String FILE_DIR_BELVEDERE = "belvedere-data-v2";
     private final static String FILE_DIR_MEDIA = "media";
     private final static String FILE_DIR_USER = "user";
+    private final static String FILE_DIR_BLOBS = "blobs";
 
     private final static String ATTACHMENT_NAME = "attachment_%s";
+    private final static String INDEXED_NAME = "%s (%d)";
     private final static String CAMERA_IMG_NAME = "camera_image_%s";
     private final static String CAMERA_IMG_SUFFIX = ".jpg";
     private final static String CAMERA_DATETIME_STRING_FORMAT = "yyyyMMddHHmmssSSS";
+    private final static String CONTENT_DIGEST_ALGORITHM = "SHA-256";
+    private final static String LINK_SUFFIX = ".link";
+    private final static String PARTIAL_SUFFIX = ".partial";
+    private final static String TRASH_PREFIX = "belvedere-trash-";
+    private final static String TRASH_NAME = TRASH_PREFIX + "%d";
+
+    private final static int ROOT_DIR_EVENTS = FileObserver.DELETE_SELF | FileObserver.MOVE_SELF
+            | FileObserver.DELETE | FileObserver.MOVED_FROM;
+
+    private final static ThreadLocal<SimpleDateFormat> DATE_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat(CAMERA_DATETIME_STRING_FORMAT, Locale.US);
+        }
+    };
+
+    private final static ThreadLocal<Date> DATE = new ThreadLocal<Date>() {
+        @Override
+        protected Date initialValue() {
+            return new Date();
+        }
+    };
+
+    private final static AtomicLong LAST_TIMESTAMP = new AtomicLong(0L);
+
+    private final boolean contentAddressed;
+    private final DiskQuota diskQuota;
+    private final Object blobLock;
 
-    Storage() {
-        // intentionally empty
+    private final Map<String, File> attachmentDirs;
+    private final Object attachmentDirsLock;
+    private int attachmentDirsGeneration;
+    private FileObserver rootDirObserver;
+
+    private volatile String fileProviderAuthority;
+
+    /**
+     * @param contentAddressed {@code true} if files with the same content should share
+     *                         their bytes on disk, see {@link #deduplicate(Context, File, byte[])}
+     * @param diskQuota        {@link DiskQuota} that limits the size of the cache
+     */
+    Storage(boolean contentAddressed, DiskQuota diskQuota) {
+        this.contentAddressed = contentAddressed;
+        this.diskQuota = diskQuota;
+        this.blobLock = new Object();
+        this.attachmentDirs = new ConcurrentHashMap<>();
+        this.attachmentDirsLock = new Object();
+        this.attachmentDirsGeneration = 0;
+        this.rootDirObserver = null;
+        this.fileProviderAuthority = null;
+    }
+
+    /**
+     * Get the root of the Belvedere cache.
+     *
+     * @param context A valid application {@link Context}
+     * @return The directory, it might not exist yet
+     */
+    static File getBelvedereDir(Context context) {
+        return new File(context.getCacheDir(), FILE_DIR_BELVEDERE);
+    }
+
+    /**
+     * Get the directory of the content addressed blobs.
+     *
+     * @param context A valid application {@link Context}
+     * @return The directory, it might not exist yet
+     */
+    static File getBlobDir(Context context) {
+        return new File(getBelvedereDir(context), FILE_DIR_BLOBS);
+    }
+
+    /**
+     * Get the temporary {@link File} a copy is written to before it replaces the provided {@link File}.
+     *
+     * @param file The destination of the copy
+     * @return A sibling of the provided {@link File}
+     */
+    static File getPartialFile(File file) {
+        return new File(file.getParentFile(), file.getName() + PARTIAL_SUFFIX);
+    }
+
+    /**
+     * Check if a {@link File} in the cache is a temporary file of a copy or link that's still in progress.
+     */
+    static boolean isTemporaryFile(File file) {
+        final String name = file.getName();
+        return name.endsWith(PARTIAL_SUFFIX) || name.endsWith(LINK_SUFFIX);
+    }
+
+    /**
+     * Count a {@link File} that was just written into the cache against the {@link DiskQuota}.
+     */
+    void onFileWritten(File file) {
+        diskQuota.onFileWritten(file);
+    }
+
+    /**
+     * Mark a {@link File} in the cache as recently used, so that it's evicted last.
+     *
+     * @return {@code false} if the file was evicted and can't be handed out
+     */
+    boolean onFileAccessed(File file) {
+        return diskQuota.onFileAccessed(file);
+    }
+
+    /**
+     * Protect a {@link File} in the cache from eviction while it gets rewritten.
+     */
+    void onFileRemoved(File file) {
+        diskQuota.onFileRemoved(file);
+    }
+
+    /**
+     * Create a {@link MessageDigest} for hashing the content of a file while it's copied
+     * into the cache.
+     *
+     * @return A {@link MessageDigest} or {@code null} if content addressed storage is
+     * turned off or not supported on this device
+     */
+    MessageDigest getContentDigest() {
+        if (!contentAddressed || Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return null;
+        }
+
+        try {
+            return MessageDigest.getInstance(CONTENT_DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            L.e(Belvedere.LOG_TAG, "Content digest not available", e);
+            return null;
+        }
+    }
+
+    /**
+     * Make sure that only one copy of the bytes of the provided {@link File} is kept on disk.
+     * <p>
+     * Every distinct content is kept once as a blob in the Belvedere cache, named by its hash.
+     * If a blob with the same hash already exists, the provided {@link File} is replaced by a
+     * hard link to it. Otherwise the {@link File} becomes the blob for its hash. Either way the
+     * provided {@link File} keeps its name and path.
+     * </p>
+     * <p>
+     * Files in the cache that are linked to a blob must not be modified in place. Delete
+     * them before writing new content.
+     * </p>
+     *
+     * @param context A valid application {@link Context}
+     * @param file    The {@link File} that was just copied into the cache
+     * @param hash    The hash of the content of the file, as calculated by {@link #getContentDigest()}
+     * @return {@code true} if the file shares its content with a previously stored file
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    boolean deduplicate(Context context, File file, byte[] hash) {
+        if (!contentAddressed || Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return false;
+        }
+
+        final File blobDir = getAttachmentDir(context, FILE_DIR_BLOBS);
+        if (blobDir == null) {
+            L.w(Belvedere.LOG_TAG, "Error creating blob directory");
+            return false;
+        }
+
+        final File blob = new File(blobDir, toHex(hash));
+
+        synchronized (blobLock) {
+            try {
+                if (blob.isFile() && blob.length() == file.length()) {
+                    // link next to the file first and swap it in, so that the file never disappears
+                    final File link = new File(file.getParentFile(), file.getName() + LINK_SUFFIX);
+                    deleteFile(link);
+                    Os.link(blob.getAbsolutePath(), link.getAbsolutePath());
+
+                    if (link.renameTo(file)) {
+                        L.d(Belvedere.LOG_TAG, String.format(Locale.US, "Deduplicated file - File: %s - Blob: %s", file, blob));
+                        return true;
+                    }
+
+                    deleteFile(link);
+                    return false;
+                }
+
+                deleteFile(blob);
+                Os.link(file.getAbsolutePath(), blob.getAbsolutePath());
+                return false;
+
+            } catch (ErrnoException e) {
+                L.e(Belvedere.LOG_TAG, String.format(Locale.US, "Unable to link file - File: %s - Blob: %s", file, blob), e);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Make sure that the provided {@link File} doesn't share its bytes with a blob, so that it
+     * can be modified in place. A file that is linked to a blob is replaced by a private copy,
+     * or deleted if it can't be copied.
+     *
+     * @param file A {@link File} in the Belvedere cache
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    void detachFromBlob(File file) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP || !file.isFile()) {
+            return;
+        }
+
+        synchronized (blobLock) {
+            try {
+                if (Os.stat(file.getAbsolutePath()).st_nlink <= 1) {
+                    return;
+                }
+            } catch (ErrnoException e) {
+                L.w(Belvedere.LOG_TAG, String.format(Locale.US, "Unable to stat file: %s", file));
+                return;
+            }
+
+            final File copy = new File(file.getParentFile(), file.getName() + LINK_SUFFIX);
+            deleteFile(copy);
+
+            if (copyFile(file, copy) && copy.renameTo(file)) {
+                L.d(Belvedere.LOG_TAG, String.format(Locale.US, "Detached file from blob: %s", file));
+                diskQuota.onFileWritten(file);
+                return;
+            }
+
+            L.w(Belvedere.LOG_TAG, String.format(Locale.US, "Unable to detach file from blob, deleting it: %s", file));
+            deleteFile(copy);
+            diskQuota.onFileRemoved(file);
+            deleteFile(file);
+        }
     }
 
     /**
@@ -126,8 +367,11 @@ class Storage {
      * @return The authority as a {@link String}
      */
     String getFileProviderAuthority(Context context) {
-        final String suffix = context.getString(R.string.belvedere_sdk_fpa_suffix_v2);
-        return String.format(Locale.US, "%s%s", context.getPackageName(), suffix);
+        if (fileProviderAuthority == null) {
+            final String suffix = context.getString(R.string.belvedere_sdk_fpa_suffix_v2);
+            fileProviderAuthority = String.format(Locale.US, "%s%s", context.getPackageName(), suffix);
+        }
+        return fileProviderAuthority;
     }
 
     /**
@@ -144,8 +388,7 @@ class Storage {
             return null;
         }
 
-        final SimpleDateFormat sdf = new SimpleDateFormat(CAMERA_DATETIME_STRING_FORMAT, Locale.US);
-        final String fileName = String.format(Locale.US, CAMERA_IMG_NAME, sdf.format(new Date(System.currentTimeMillis())));
+        final String fileName = String.format(Locale.US, CAMERA_IMG_NAME, getUniqueTimestamp());
 
         return createTempFile(cacheDir, fileName, CAMERA_IMG_SUFFIX);
     }
@@ -154,11 +397,11 @@ class Storage {
      * Get a {@link File} for media from the gallery.
      *
      * @param context      A valid application {@link Context}
-     * @param uri          {@link Uri} to the media from the gallery
+     * @param metadata     {@link MediaMetadata} of the media from the gallery
      * @param subDirectory Name of the sub directory where to put the file or {@code null} if not needed
      * @return The {@link File}
      */
-    File getFileForUri(Context context, Uri uri, String subDirectory) {
+    File getFileForUri(Context context, MediaMetadata metadata, String subDirectory) {
         final String path;
         if (!TextUtils.isEmpty(subDirectory)) {
             path = FILE_DIR_USER + File.separator + subDirectory;
@@ -173,13 +416,12 @@ class Storage {
             return null;
         }
 
-        String fileName = getFileNameFromUri(context, uri);
+        String fileName = metadata.getName();
         String suffix = null;
 
         if (TextUtils.isEmpty(fileName)) {
-            final SimpleDateFormat sdf = new SimpleDateFormat(CAMERA_DATETIME_STRING_FORMAT, Locale.US);
-            fileName = String.format(Locale.US, ATTACHMENT_NAME, sdf.format(new Date(System.currentTimeMillis())));
-            suffix = getExtension(context, uri, true);
+            fileName = String.format(Locale.US, ATTACHMENT_NAME, getUniqueTimestamp());
+            suffix = getExtension(metadata, true);
         }
 
         return createTempFile(cacheDir, fileName, suffix);
@@ -230,10 +472,55 @@ class Storage {
         return new File(dir, fileName + (!TextUtils.isEmpty(suffix) ? suffix : ""));
     }
 
+    /**
+     * Get a sibling of the provided {@link File} with an index added to its name.
+     * <p>
+     * E.g. 'image.jpg' becomes 'image (1).jpg'
+     * </p>
+     *
+     * @param file  The {@link File}
+     * @param index The index to add
+     * @return The indexed {@link File}
+     */
+    static File getIndexedFile(File file, int index) {
+        final String name = file.getName();
+        final int dot = name.lastIndexOf(".");
+
+        final String indexedName;
+        if (dot > 0) {
+            indexedName = String.format(Locale.US, INDEXED_NAME, name.substring(0, dot), index) + name.substring(dot);
+        } else {
+            indexedName = String.format(Locale.US, INDEXED_NAME, name, index);
+        }
+
+        return new File(file.getParentFile(), indexedName);
+    }
+
+    /**
+     * Get a formatted timestamp for naming files. Every call returns a different timestamp,
+     * calls within the same millisecond get the following milliseconds.
+     */
+    private static String getUniqueTimestamp() {
+        final long now = System.currentTimeMillis();
+
+        long last;
+        long next;
+        do {
+            last = LAST_TIMESTAMP.get();
+            next = Math.max(now, last + 1);
+        } while (!LAST_TIMESTAMP.compareAndSet(last, next));
+
+        final Date date = DATE.get();
+        date.setTime(next);
+        return DATE_FORMAT.get().format(date);
+    }
+
     /**
      * Get and create a sub directory in the Belvedere cache.
      * <p>
-     * If the directory not exist the method tries to create it.
+     * If the directory not exist the method tries to create it. Verified directories
+     * are cached, the cache is dropped as soon as the root of the Belvedere cache or one
+     * of its direct children is deleted or moved, e.g. if the system clears the cache.
      * </p>
      *
      * @param context      A valid application {@link Context}
@@ -242,52 +529,180 @@ class Storage {
      */
     @SuppressWarnings("ResultOfMethodCallIgnored")
     private File getAttachmentDir(Context context, String subDirectory) {
+        final String key = !TextUtils.isEmpty(subDirectory) ? subDirectory : "";
 
-        final String subDirectoryString;
-        if (!TextUtils.isEmpty(subDirectory)) {
-            subDirectoryString = subDirectory + File.separator;
-        } else {
-            subDirectoryString = "";
+        final File cachedDir = attachmentDirs.get(key);
+        if (cachedDir != null) {
+            return cachedDir;
+        }
+
+        final int generation;
+        synchronized (attachmentDirsLock) {
+            generation = attachmentDirsGeneration;
         }
 
-        final File dir = new File(getRootDir(context) + File.separator + FILE_DIR_BELVEDERE + File.separator + subDirectoryString);
+        final File rootDir = getBelvedereDir(context);
+        final File dir = key.length() > 0 ? new File(rootDir, key) : rootDir;
 
         if (!dir.isDirectory()) {
             dir.mkdirs();
         }
 
-        return dir.isDirectory() ? dir : null;
+        if (!dir.isDirectory()) {
+            return null;
+        }
+
+        synchronized (attachmentDirsLock) {
+            watchRootDir(rootDir);
+            // don't cache a directory that got deleted in the meantime
+            if (generation == attachmentDirsGeneration) {
+                attachmentDirs.put(key, dir);
+            }
+        }
+
+        return dir;
+    }
+
+    @SuppressWarnings("deprecation")
+    private void watchRootDir(File rootDir) {
+        if (rootDirObserver != null) {
+            return;
+        }
+
+        rootDirObserver = new FileObserver(rootDir.getAbsolutePath(), ROOT_DIR_EVENTS) {
+            @Override
+            public void onEvent(int event, String path) {
+                final boolean rootGone = (event & (FileObserver.DELETE_SELF | FileObserver.MOVE_SELF)) != 0;
+                invalidateAttachmentDirs(rootGone);
+            }
+        };
+        rootDirObserver.startWatching();
     }
 
-    private String getRootDir(Context context) {
-        return context.getCacheDir().getAbsolutePath();
+    private void invalidateAttachmentDirs(boolean rootGone) {
+        synchronized (attachmentDirsLock) {
+            attachmentDirsGeneration++;
+            attachmentDirs.clear();
+
+            if (rootGone && rootDirObserver != null) {
+                // the watch died with the directory, a new one is set up with the next directory
+                rootDirObserver.stopWatching();
+                rootDirObserver = null;
+            }
+        }
     }
 
     /**
-     * Clear the Belvedere cache.
+     * Move the Belvedere cache, or one of its user directories, out of the way, so that
+     * it can be deleted in the background. Renaming is cheap compared to deleting every
+     * single file, files are gone from their original location right away.
+     * <p>
+     * If the directory can't be moved, it's returned as it is and has to be deleted in place.
+     * </p>
      *
-     * @param context A valid application {@link Context}.
+     * @param context      A valid application {@link Context}.
+     * @param subDirectory The user directory to clear or {@code null} for the whole cache
+     * @return The directories to delete, including leftovers of previous purges
      */
-    void clearStorage(Context context) {
-        final File rootDir = new File(getRootDir(context) + File.separator + FILE_DIR_BELVEDERE);
-        if (rootDir.isDirectory()) {
-            clearDirectory(rootDir);
+    List<File> moveToTrash(Context context, String subDirectory) {
+        final File dir = TextUtils.isEmpty(subDirectory)
+                ? getBelvedereDir(context)
+                : new File(getBelvedereDir(context), FILE_DIR_USER + File.separator + subDirectory);
+
+        final List<File> trash = new ArrayList<>();
+
+        if (dir.isDirectory()) {
+            final File tombstone = new File(context.getCacheDir(),
+                    String.format(Locale.US, TRASH_NAME, System.nanoTime()));
+
+            if (dir.renameTo(tombstone)) {
+                trash.add(tombstone);
+            } else {
+                L.w(Belvedere.LOG_TAG, String.format(Locale.US, "Unable to move directory to trash: %s", dir));
+                trash.add(dir);
+            }
+
+            invalidateAttachmentDirs(TextUtils.isEmpty(subDirectory));
+
+            if (TextUtils.isEmpty(subDirectory)) {
+                diskQuota.clear();
+            } else {
+                diskQuota.onDirectoryRemoved(dir);
+            }
+        }
+
+        // leftovers of purges that didn't finish
+        final File[] children = context.getCacheDir().listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.getName().startsWith(TRASH_PREFIX) && !trash.contains(child)) {
+                    trash.add(child);
+                }
+            }
         }
+
+        return trash;
     }
 
     @SuppressWarnings("ResultOfMethodCallIgnored")
-    private void clearDirectory(File fileOrDirectory) {
-        if (fileOrDirectory.isDirectory()) {
-            for (File child : fileOrDirectory.listFiles()) {
-                clearDirectory(child);
+    private static void deleteFile(File file) {
+        if (file.exists()) {
+            file.delete();
+        }
+    }
+
+    private static boolean copyFile(File source, File target) {
+        FileInputStream inputStream = null;
+        FileOutputStream outputStream = null;
+        try {
+            inputStream = new FileInputStream(source);
+            outputStream = new FileOutputStream(target);
+
+            final FileChannel in = inputStream.getChannel();
+            final FileChannel out = outputStream.getChannel();
+            final long size = in.size();
+
+            long position = 0L;
+            while (position < size) {
+                final long transferred = in.transferTo(position, size - position, out);
+                if (transferred <= 0L) {
+                    return false;
+                }
+                position += transferred;
+            }
+            return true;
+
+        } catch (IOException e) {
+            L.e(Belvedere.LOG_TAG, String.format(Locale.US, "Unable to copy file - Source: %s - Target: %s", source, target), e);
+            return false;
+
+        } finally {
+            close(inputStream);
+            close(outputStream);
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // intentionally empty
             }
         }
-        fileOrDirectory.delete();
+    }
+
+    private static String toHex(byte[] bytes) {
+        final StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format(Locale.US, "%02x", b));
+        }
+        return hex.toString();
     }
 
     /**
      * Try to guess the mime type of the media {@link File} behind
-     * the provided {@link Uri}.
+     * the provided {@link MediaMetadata}.
      * <p>
      * The returned result will look like this '.gif' or '.jpg'.
      * <br>
@@ -295,19 +710,18 @@ class Storage {
      * return '.tmp'
      * </p>
      *
-     * @param context        A valid application {@link Context}
-     * @param uri            An {@link Uri}
+     * @param metadata       {@link MediaMetadata} of an {@link Uri}
      * @param withLeadingDot {@code true} if the method should add a '.' to the extension
      * @return The mime type as a {@link String}.
      */
-    private static String getExtension(Context context, Uri uri, boolean withLeadingDot) {
+    private static String getExtension(MediaMetadata metadata, boolean withLeadingDot) {
         final MimeTypeMap mime = MimeTypeMap.getSingleton();
+        final Uri uri = metadata.getUri();
         final String schema = uri.getScheme();
         String ext = "tmp";
 
         if (ContentResolver.SCHEME_CONTENT.equals(schema)) {
-            final ContentResolver cr = context.getContentResolver();
-            ext = mime.getExtensionFromMimeType(cr.getType(uri));
+            ext = mime.getExtensionFromMimeType(metadata.getMimeType());
 
         } else if (ContentResolver.SCHEME_FILE.equals(schema)) {
             final String fullFileName = uri.getLastPathSegment();
@@ -327,71 +741,13 @@ class Storage {
     }
 
     /**
-     * Try to get the file name of a {@link File} behind an {@link Uri}.
-     * This method queries {@link ContentResolver} for the
-     * {@link MediaStore.MediaColumns#DISPLAY_NAME} column the find the name of
-     * the provided {@link Uri}.
+     * Get a {@link MediaResult} that describes the media behind an {@link Uri}.
      *
      * @param context A valid application {@link Context}
-     * @param uri     Link to the {@link Uri}
-     * @return The name of the {@link File}, or an empty {@link String}
+     * @param uri     An {@link Uri}
+     * @return The {@link MediaResult}, without a local {@link File}
      */
-    private static String getFileNameFromUri(Context context, Uri uri) {
-        final String schema = uri.getScheme();
-        String path = "";
-
-        if (ContentResolver.SCHEME_CONTENT.equals(schema)) {
-            final String[] projection = {MediaStore.MediaColumns.DISPLAY_NAME};
-            final ContentResolver contentResolver = context.getContentResolver();
-            final Cursor cursor = contentResolver.query(uri, projection, null, null, null);
-
-            if (cursor != null) {
-                try {
-                    if (cursor.moveToFirst()) {
-                        path = cursor.getString(0);
-                    }
-                } finally {
-                    cursor.close();
-                }
-            }
-
-        } else if (ContentResolver.SCHEME_FILE.equals(schema)) {
-            path = uri.getLastPathSegment();
-
-        }
-
-        return path;
-    }
-
     static MediaResult getMediaResultForUri(Context context, Uri uri) {
-        final String schema = uri.getScheme();
-        long size = UNKNOWN_VALUE;
-        String name = "";
-        String mimeType = "";
-
-        if (ContentResolver.SCHEME_CONTENT.equals(schema)) {
-            final String[] projection = {
-                    MediaStore.MediaColumns.SIZE,
-                    MediaStore.MediaColumns.DISPLAY_NAME,
-            };
-
-            final ContentResolver contentResolver = context.getContentResolver();
-            final Cursor cursor = contentResolver.query(uri, projection, null, null, null);
-
-            mimeType = contentResolver.getType(uri);
-
-            if (cursor != null) {
-                try {
-                    if (cursor.moveToFirst()) {
-                        size = cursor.getLong(cursor.getColumnIndex(MediaStore.MediaColumns.SIZE));
-                        name = cursor.getString(cursor.getColumnIndex(MediaStore.MediaColumns.DISPLAY_NAME));
-                    }
-                } finally {
-                    cursor.close();
-                }
-            }
-        }
-
-        return new MediaResult(null, uri, uri, name, mimeType, size, UNKNOWN_VALUE, UNKNOWN_VALUE);
+        return MediaMetadata.load(context, uri).toMediaResult();
     }
-}
\ No newline at end of file
+}
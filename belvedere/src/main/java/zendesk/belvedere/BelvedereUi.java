@@ -80,6 +80,9 @@ public class BelvedereUi {
 
         private ImageStreamBuilder(Context context) {
             this.context = context;
+
+            // the stream offers Google Photos, find out in the background if it's installed
+            Belvedere.from(context).getCapabilities().prefetchApp(ImageStreamModel.GOOGLE_PHOTOS_PACKAGE_NAME);
         }
 
         /**
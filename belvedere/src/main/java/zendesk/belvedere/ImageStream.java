@@ -65,25 +65,29 @@ public class ImageStream extends Fragment {
     public void onActivityResult(int requestCode, final int resultCode, final Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
 
-        callback = new Callback<List<MediaResult>>() {
+        final long maxFileSize = uiConfig != null ? uiConfig.getMaxFileSize() : -1L;
+        final MediaFilter filter = new MediaFilter(maxFileSize, new ArrayList<String>(0));
+
+        callback = new ResolveCallback() {
+
+            private boolean rejected = false;
+
             @Override
-            public void success(List<MediaResult> result) {
-                List<MediaResult> filteredMediaResult = new ArrayList<>(result.size());
-                for(MediaResult m : result) {
-                    if(m.getSize() <= uiConfig.getMaxFileSize() || uiConfig.getMaxFileSize() == -1L) {
-                        filteredMediaResult.add(m);
-                    }
-                }
+            public void itemRejected(MediaResult metadata) {
+                rejected = true;
+            }
 
-                if(filteredMediaResult.size() != result.size()) {
+            @Override
+            public void success(List<MediaResult> result) {
+                if(rejected) {
                     Toast.makeText(getContext(), R.string.belvedere_image_stream_file_too_large, Toast.LENGTH_SHORT).show();
                 }
 
-                notifyImageSelected(filteredMediaResult);
+                notifyImageSelected(result);
             }
         };
 
-        Belvedere.from(this.requireContext()).getFilesFromActivityOnResult(requestCode, resultCode, data, callback, false);
+        Belvedere.from(this.requireContext()).getFilesFromActivityOnResult(requestCode, resultCode, data, callback, false, filter);
     }
 
     void setKeyboardHelper(KeyboardHelper keyboardHelper) {
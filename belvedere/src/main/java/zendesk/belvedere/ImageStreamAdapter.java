@@ -6,6 +6,10 @@ import android.view.View;
 import android.view.ViewGroup;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
+import androidx.recyclerview.widget.AsyncDifferConfig;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.ArrayList;
@@ -13,18 +17,34 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
+/**
+ * Shows the static items followed by the image stream.
+ * <p>
+ * Changes to the items are diffed on a background thread and dispatched as fine-grained
+ * notifications. An item whose selection changed is rebound with {@link #SELECTION_PAYLOAD},
+ * which only updates the selection overlay instead of loading the image again.
+ * </p>
+ */
 class ImageStreamAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
 
+    static final Object SELECTION_PAYLOAD = new Object();
+
+    private final AsyncListDiffer<ImageStreamItems.Item> differ;
+
     private List<ImageStreamItems.Item> staticItems;
     private List<ImageStreamItems.Item> imageStream;
 
-    private List<ImageStreamItems.Item> list;
-
-    ImageStreamAdapter() {
+    /**
+     * @param diffExecutor {@link Executor} that computes the differences between two lists of items
+     */
+    ImageStreamAdapter(Executor diffExecutor) {
         staticItems = new ArrayList<>();
         imageStream = new ArrayList<>();
-        list = new ArrayList<>();
+        setHasStableIds(true);
+        differ = new AsyncListDiffer<>(new AdapterListUpdateCallback(this),
+                new AsyncDifferConfig.Builder<>(ITEM_CALLBACK).setBackgroundThreadExecutor(diffExecutor).build());
     }
 
     @NonNull
@@ -36,46 +56,165 @@ class ImageStreamAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
 
     @Override
     public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
-        list.get(position).bind(holder.itemView);
+        getItem(position).bind(holder.itemView);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (!payloads.isEmpty() && onlySelectionChanged(payloads)) {
+            getItem(position).bindSelection(holder.itemView);
+        } else {
+            onBindViewHolder(holder, position);
+        }
     }
 
     @Override
     public long getItemId(int position) {
-        return list.get(position).getId();
+        return getItem(position).getId();
     }
 
     @Override
     public int getItemViewType(int position) {
-        return list.get(position).getLayoutId();
+        return getItem(position).getLayoutId();
     }
 
     @Override
     public int getItemCount() {
-        return list.size();
+        return differ.getCurrentList().size();
     }
 
     void initializeWithImages(List<ImageStreamItems.Item> imageStream) {
+        initializeWithImages(imageStream, Collections.<MediaResult>emptyList());
+    }
+
+    void initializeWithImages(List<ImageStreamItems.Item> imageStream, List<MediaResult> selectedMediaResults) {
+        markSelected(imageStream, selectedMediaResults);
         updateDataSet(staticItems, imageStream);
     }
 
+    /**
+     * Add images to the end of the stream. Images that are already part of the stream, e.g.
+     * because they were added to the top while it was showing, are skipped.
+     */
+    void appendImages(List<ImageStreamItems.Item> images, List<MediaResult> selectedMediaResults) {
+        final Set<Uri> existingUris = getStreamUris();
+
+        final List<ImageStreamItems.Item> newImageStream = new ArrayList<>(imageStream.size() + images.size());
+        newImageStream.addAll(imageStream);
+
+        final List<ImageStreamItems.Item> newImages = new ArrayList<>(images.size());
+        for (ImageStreamItems.Item item : images) {
+            if (existingUris.add(item.getMediaResult().getOriginalUri())) {
+                newImages.add(item);
+            }
+        }
+
+        if (newImages.isEmpty()) {
+            return;
+        }
+
+        markSelected(newImages, selectedMediaResults);
+        newImageStream.addAll(newImages);
+
+        updateDataSet(staticItems, newImageStream);
+    }
+
+    /**
+     * Add images to the top of the stream, below the static items. Images that are
+     * already part of the stream are skipped.
+     */
+    void prependImages(List<ImageStreamItems.Item> images, List<MediaResult> selectedMediaResults) {
+        final Set<Uri> existingUris = getStreamUris();
+
+        final List<ImageStreamItems.Item> newImageStream = new ArrayList<>(imageStream.size() + images.size());
+        for (ImageStreamItems.Item item : images) {
+            if (existingUris.add(item.getMediaResult().getOriginalUri())) {
+                newImageStream.add(item);
+            }
+        }
+
+        if (newImageStream.isEmpty()) {
+            return;
+        }
+
+        markSelected(newImageStream, selectedMediaResults);
+        newImageStream.addAll(imageStream);
+
+        updateDataSet(staticItems, newImageStream);
+    }
+
+    /**
+     * Update the selection of the items that are showing, without rebinding their images.
+     */
     void setItemsSelected(List<MediaResult> mediaResults) {
-        final List<ImageStreamItems.Item> streamItemImages = new ArrayList<>(imageStream);
+        final Set<Uri> uris = getUris(mediaResults);
+        final List<ImageStreamItems.Item> currentList = differ.getCurrentList();
+
+        for (int i = 0; i < currentList.size(); i++) {
+            final ImageStreamItems.Item item = currentList.get(i);
+            if (item.getMediaResult() == null) {
+                continue;
+            }
+
+            final boolean selected = uris.contains(item.getMediaResult().getOriginalUri());
+            if (item.isSelected() != selected) {
+                item.setSelected(selected);
+                notifyItemChanged(i, SELECTION_PAYLOAD);
+            }
+        }
+
+        // items that are still being diffed pick up the selection once they are shown
+        markSelected(imageStream, mediaResults);
+    }
+
+    void addStaticItem(ImageStreamItems.Item staticItem) {
+        updateDataSet(Collections.singletonList(staticItem), imageStream);
+    }
+
+    private static Set<Uri> getUris(List<MediaResult> mediaResults) {
         final Set<Uri> uris = new HashSet<>();
 
         for(MediaResult mediaResult : mediaResults) {
             uris.add(mediaResult.getOriginalUri());
         }
 
-        for (ImageStreamItems.Item item : streamItemImages) {
-            final boolean selected = uris.contains(item.getMediaResult().getOriginalUri());
-            item.setSelected(selected);
+        return uris;
+    }
+
+    private Set<Uri> getStreamUris() {
+        final Set<Uri> uris = new HashSet<>(imageStream.size());
+
+        for (ImageStreamItems.Item item : imageStream) {
+            if (item.getMediaResult() != null) {
+                uris.add(item.getMediaResult().getOriginalUri());
+            }
         }
 
-        updateDataSet(staticItems, streamItemImages);
+        return uris;
     }
 
-    void addStaticItem(ImageStreamItems.Item staticItem) {
-        updateDataSet(Collections.singletonList(staticItem), imageStream);
+    private ImageStreamItems.Item getItem(int position) {
+        return differ.getCurrentList().get(position);
+    }
+
+    private static void markSelected(List<ImageStreamItems.Item> items, List<MediaResult> selectedMediaResults) {
+        final Set<Uri> uris = getUris(selectedMediaResults);
+
+        for (ImageStreamItems.Item item : items) {
+            if (item.getMediaResult() != null) {
+                item.setSelected(uris.contains(item.getMediaResult().getOriginalUri()));
+            }
+        }
+    }
+
+    private static boolean onlySelectionChanged(List<Object> payloads) {
+        for (Object payload : payloads) {
+            if (payload != SELECTION_PAYLOAD) {
+                return false;
+            }
+        }
+
+        return true;
     }
 
     private void updateDataSet(List<ImageStreamItems.Item> newStaticItems,
@@ -86,9 +225,32 @@ class ImageStreamAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
 
         staticItems = newStaticItems;
         imageStream = newImageStream;
-        list = newList;
+        differ.submitList(newList);
     }
 
+    /**
+     * Items are the same if they have the same stable id, see {@link ImageStreamItems#getStableId(MediaResult)}.
+     */
+    private static final DiffUtil.ItemCallback<ImageStreamItems.Item> ITEM_CALLBACK = new DiffUtil.ItemCallback<ImageStreamItems.Item>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull ImageStreamItems.Item oldItem, @NonNull ImageStreamItems.Item newItem) {
+            return oldItem.getId() == newItem.getId()
+                    && oldItem.getLayoutId() == newItem.getLayoutId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull ImageStreamItems.Item oldItem, @NonNull ImageStreamItems.Item newItem) {
+            // a new item is bound to its own listeners, so it's never the same as an old one
+            return oldItem == newItem;
+        }
+
+        @Override
+        public Object getChangePayload(@NonNull ImageStreamItems.Item oldItem, @NonNull ImageStreamItems.Item newItem) {
+            final MediaResult oldMediaResult = oldItem.getMediaResult();
+            return oldMediaResult != null && oldMediaResult.equals(newItem.getMediaResult()) ? SELECTION_PAYLOAD : null;
+        }
+    };
+
     interface Listener {
 
         void onOpenCamera();
@@ -6,14 +6,14 @@ import android.content.Context;
 import android.database.Cursor;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.CancellationSignal;
 import android.provider.MediaStore;
 
 import androidx.annotation.Nullable;
 
+import java.util.Arrays;
 import java.util.Locale;
 
-import static android.content.ContentResolver.QUERY_SORT_DIRECTION_DESCENDING;
-
 class ImageStreamCursorProvider {
 
     final static String[] PROJECTION = new String[]{
@@ -21,7 +21,8 @@ class ImageStreamCursorProvider {
             MediaStore.MediaColumns.DISPLAY_NAME,
             MediaStore.MediaColumns.SIZE,
             MediaStore.MediaColumns.WIDTH,
-            MediaStore.MediaColumns.HEIGHT
+            MediaStore.MediaColumns.HEIGHT,
+            MediaStore.MediaColumns.MIME_TYPE
     };
 
     private final Context context;
@@ -39,46 +40,192 @@ class ImageStreamCursorProvider {
     }
 
     /**
-     * Gets a cursor containing the maximum number of images to request. Can return null.
+     * Gets a cursor containing a page of images, most recent first. Can return null.
+     * <p>
+     * The rows after the last row of the previous page are selected by their order column and
+     * {@code _id}, so images that are added or removed in between don't shift the pages. Rows
+     * without a value in the order column come last.
      *
      * @param count The maximum number of images to request
+     * @param pageKey The {@link PageKey} of the page to request, {@link PageKey#FIRST} for the first one
+     * @param cancellationSignal A {@link CancellationSignal} that aborts the query, or null
      * @return A Cursor containing the images, or null
      */
-    @SuppressLint("NewApi")
-    @Nullable Cursor getCursor(int count) {
+    @Nullable Cursor getCursor(int count, PageKey pageKey, @Nullable CancellationSignal cancellationSignal) {
         if (context == null) {
             return null;
         }
 
         final String orderColumn = getOrderColumn();
 
-        Cursor cursor;
+        String selection = null;
+        String[] selectionArgs = null;
+
+        if (pageKey != PageKey.FIRST) {
+            if (pageKey.orderValue != null) {
+                selection = String.format(Locale.US, "%1$s < ? OR (%1$s = ? AND %2$s < ?) OR %1$s IS NULL", orderColumn, MediaStore.Images.ImageColumns._ID);
+                selectionArgs = new String[]{
+                        String.valueOf(pageKey.orderValue),
+                        String.valueOf(pageKey.orderValue),
+                        String.valueOf(pageKey.id)
+                };
+            } else {
+                selection = String.format(Locale.US, "%1$s IS NULL AND %2$s < ?", orderColumn, MediaStore.Images.ImageColumns._ID);
+                selectionArgs = new String[]{String.valueOf(pageKey.id)};
+            }
+        }
+
+        return query(count, selection, selectionArgs, cancellationSignal);
+    }
+
+    /**
+     * Gets a cursor containing the images that were added after the {@link Anchor}, most recent
+     * first. Can return null.
+     * <p>
+     * From Android R the rows are selected by the generation they were added in. Before that,
+     * they are selected by their {@code _id}, which only ever increases. The order column can't
+     * be used, screenshots and downloads have no {@code DATE_TAKEN}, and restored or received
+     * images have an old one.
+     *
+     * @param count The maximum number of images to request
+     * @param anchor The {@link Anchor} of the first image in the stream
+     * @param cancellationSignal A {@link CancellationSignal} that aborts the query, or null
+     * @return A Cursor containing the images, or null
+     */
+    @SuppressLint("InlinedApi")
+    @Nullable Cursor getNewerCursor(int count, Anchor anchor, @Nullable CancellationSignal cancellationSignal) {
+        if (context == null) {
+            return null;
+        }
+
+        final String selection;
+        final String[] selectionArgs;
+
+        if (currentApiLevel >= Build.VERSION_CODES.R) {
+            selection = String.format(Locale.US, "%s > ?", MediaStore.MediaColumns.GENERATION_ADDED);
+            selectionArgs = new String[]{String.valueOf(anchor.generation)};
+        } else {
+            selection = String.format(Locale.US, "%s > ?", MediaStore.Images.ImageColumns._ID);
+            selectionArgs = new String[]{String.valueOf(anchor.id)};
+        }
+
+        return query(count, selection, selectionArgs, cancellationSignal);
+    }
+
+    /**
+     * Query the images, most recent first.
+     * <p>
+     * From Android O the query arguments are passed in a {@link Bundle}. The sort order is passed
+     * as SQL, the sort columns of a {@link Bundle} share a single direction. Not every provider
+     * honours the limit, so callers must not read more than {@code count} rows.
+     */
+    @SuppressLint("NewApi")
+    private Cursor query(int count, String selection, String[] selectionArgs, CancellationSignal cancellationSignal) {
+        final String order =
+                String.format(Locale.US, "%s DESC, %s DESC", getOrderColumn(), MediaStore.Images.ImageColumns._ID);
 
         if (currentApiLevel >= Build.VERSION_CODES.O) {
             Bundle queryArgs = new Bundle();
 
+            if (selection != null) {
+                queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection);
+                queryArgs.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, selectionArgs);
+            }
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, order);
             queryArgs.putInt(ContentResolver.QUERY_ARG_LIMIT, count);
-            queryArgs.putStringArray(ContentResolver.QUERY_ARG_SORT_COLUMNS, new String[]{orderColumn});
-            queryArgs.putInt(ContentResolver.QUERY_ARG_SORT_DIRECTION, QUERY_SORT_DIRECTION_DESCENDING);
 
-            cursor = context.getContentResolver().query(
+            return context.getContentResolver().query(
                     MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
-                    PROJECTION,
+                    getProjection(),
                     queryArgs,
-                    null);
-        } else {
-            final String order =
-                    String.format(Locale.US, "%s DESC LIMIT %s", orderColumn, count);
+                    cancellationSignal);
+        }
+
+        return context.getContentResolver().query(
+                MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                getProjection(),
+                selection,
+                selectionArgs,
+                String.format(Locale.US, "%s LIMIT %s", order, count),
+                cancellationSignal);
+    }
+
+    /**
+     * Gets the highest {@code _id} of the images, newer images get a higher one.
+     *
+     * @return The {@code _id}, or 0 if there are no images or from Android R, where the
+     * generation is used instead
+     */
+    @SuppressLint("NewApi")
+    long getLatestId() {
+        if (context == null || currentApiLevel >= Build.VERSION_CODES.R) {
+            return 0L;
+        }
+
+        final String[] projection = new String[]{MediaStore.Images.ImageColumns._ID};
+        final String order = String.format(Locale.US, "%s DESC", MediaStore.Images.ImageColumns._ID);
+
+        final Cursor cursor;
+        if (currentApiLevel >= Build.VERSION_CODES.O) {
+            Bundle queryArgs = new Bundle();
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, order);
+            queryArgs.putInt(ContentResolver.QUERY_ARG_LIMIT, 1);
 
             cursor = context.getContentResolver().query(
-                    MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
-                    PROJECTION,
-                    null,
-                    null,
-                    order);
+                    MediaStore.Images.Media.EXTERNAL_CONTENT_URI, projection, queryArgs, null);
+        } else {
+            cursor = context.getContentResolver().query(
+                    MediaStore.Images.Media.EXTERNAL_CONTENT_URI, projection, null, null,
+                    String.format(Locale.US, "%s LIMIT 1", order));
+        }
+
+        if (cursor == null) {
+            return 0L;
         }
 
-        return cursor;
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0L;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Gets the current generation of the {@link MediaStore}, every change increases it.
+     *
+     * @return The generation, or 0 before Android R
+     */
+    @SuppressLint("NewApi")
+    long getGeneration() {
+        if (context == null || currentApiLevel < Build.VERSION_CODES.R) {
+            return 0L;
+        }
+
+        return MediaStore.getGeneration(context, MediaStore.VOLUME_EXTERNAL_PRIMARY);
+    }
+
+    /**
+     * Gets the version of the {@link MediaStore}, it changes when the database is rebuilt and
+     * the generations start over.
+     *
+     * @return The version, or null before Android Q
+     */
+    @SuppressLint("NewApi")
+    @Nullable String getVersion() {
+        if (context == null || currentApiLevel < Build.VERSION_CODES.Q) {
+            return null;
+        }
+
+        return MediaStore.getVersion(context);
+    }
+
+    /**
+     * The {@link #PROJECTION} plus the order column, which the next {@link PageKey} is built from.
+     */
+    String[] getProjection() {
+        final String[] projection = Arrays.copyOf(PROJECTION, PROJECTION.length + 1);
+        projection[PROJECTION.length] = getOrderColumn();
+        return projection;
     }
 
     @SuppressLint("InlinedApi")
@@ -87,4 +234,60 @@ class ImageStreamCursorProvider {
                 ? MediaStore.Images.ImageColumns.DATE_TAKEN
                 : MediaStore.Images.ImageColumns.DATE_MODIFIED;
     }
+
+    /**
+     * Identifies a page of images by the last row of the previous page.
+     */
+    static class PageKey {
+
+        static final PageKey FIRST = new PageKey(null, 0L);
+
+        private final Long orderValue;
+        private final long id;
+
+        /**
+         * @param orderValue The value of the order column of the last row, or {@code null} if it has none
+         * @param id         The {@code _id} of the last row
+         */
+        PageKey(@Nullable Long orderValue, long id) {
+            this.orderValue = orderValue;
+            this.id = id;
+        }
+
+        @Nullable Long getOrderValue() {
+            return orderValue;
+        }
+
+        long getId() {
+            return id;
+        }
+    }
+
+    /**
+     * Identifies the newest image the stream knows about, images added after it are newer.
+     */
+    static class Anchor {
+
+        static final Anchor NONE = new Anchor(0L, 0L);
+
+        private final long id;
+        private final long generation;
+
+        /**
+         * @param id         The highest {@code _id} before the rows were queried
+         * @param generation The generation of the {@link MediaStore} before the rows were queried
+         */
+        Anchor(long id, long generation) {
+            this.id = id;
+            this.generation = generation;
+        }
+
+        long getId() {
+            return id;
+        }
+
+        long getGeneration() {
+            return generation;
+        }
+    }
 }
@@ -4,6 +4,8 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
+import android.net.Uri;
+import android.provider.MediaStore;
 import android.view.View;
 import android.widget.ImageView;
 import android.widget.TextView;
@@ -12,7 +14,6 @@ import com.squareup.picasso.Picasso;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
 
 import zendesk.belvedere.ui.R;
 
@@ -20,6 +21,13 @@ class ImageStreamItems {
 
     private final static int PIC_CAMERA = R.drawable.belvedere_ic_camera_black;
     private final static int LAYOUT_GRID = R.layout.belvedere_stream_list_item_square_static;
+    private final static int LAYOUT_PLACEHOLDER = R.layout.belvedere_stream_list_item_placeholder;
+
+    private final static long CAMERA_ID = -1L;
+    private final static long PLACEHOLDER_ID_OFFSET = -2L;
+    private final static String MEDIA_STORE_FILES_SEGMENT = "file";
+    private final static long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private final static long FNV_PRIME = 0x100000001b3L;
 
     static List<Item> fromMediaResults(List<MediaResult> mediaResults, ImageStreamAdapter.Listener listener, Context context) {
 
@@ -36,8 +44,18 @@ class ImageStreamItems {
         return items;
     }
 
+    static List<Item> placeholders(int count) {
+        final List<Item> items = new ArrayList<>(count);
+
+        for(int i = 0; i < count; i++) {
+            items.add(new PlaceholderItem(PLACEHOLDER_ID_OFFSET - i));
+        }
+
+        return items;
+    }
+
     static StaticItem forCameraSquare(final ImageStreamAdapter.Listener listener) {
-        return new StaticItem(LAYOUT_GRID, PIC_CAMERA, new View.OnClickListener() {
+        return new StaticItem(CAMERA_ID, LAYOUT_GRID, PIC_CAMERA, new View.OnClickListener() {
             @Override
             public void onClick(View v) {
                 listener.onOpenCamera();
@@ -45,6 +63,43 @@ class ImageStreamItems {
         });
     }
 
+    /**
+     * Get an id for a {@link MediaResult} that stays the same across queries.
+     * <p>
+     * Rows of the image stream are identified by their {@link MediaStore} {@code _id}. Any other
+     * {@link Uri}, like the ones the user provided, gets a 64-bit hash of the {@link Uri} with the
+     * sign bit set, so it never collides with a row id. The static items and the placeholders
+     * use small negative ids.
+     * </p>
+     */
+    static long getStableId(MediaResult mediaResult) {
+        final Uri uri = mediaResult.getOriginalUri();
+        if (uri == null) {
+            return Long.MIN_VALUE;
+        }
+
+        final List<String> segments = uri.getPathSegments();
+        if (MediaStore.AUTHORITY.equals(uri.getAuthority())
+                && segments != null
+                && segments.size() == 3
+                && MEDIA_STORE_FILES_SEGMENT.equals(segments.get(1))) {
+            try {
+                return Long.parseLong(segments.get(2));
+            } catch (NumberFormatException e) {
+                // not a row of the stream, fall through
+            }
+        }
+
+        final String value = uri.toString();
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= FNV_PRIME;
+        }
+
+        return hash | Long.MIN_VALUE;
+    }
+
     static abstract class Item {
 
         private final int layoutId;
@@ -53,9 +108,13 @@ class ImageStreamItems {
         private boolean isSelected;
 
         Item(int layoutId, MediaResult mediaResult) {
+            this(getStableId(mediaResult), layoutId, mediaResult);
+        }
+
+        Item(long id, int layoutId, MediaResult mediaResult) {
             this.layoutId = layoutId;
             this.mediaResult = mediaResult;
-            this.id = UUID.randomUUID().hashCode();
+            this.id = id;
             this.isSelected = false;
         }
 
@@ -69,6 +128,13 @@ class ImageStreamItems {
 
         abstract void bind(View view);
 
+        /**
+         * Bind only the selection, the rest of the view is already showing this item.
+         */
+        void bindSelection(View view) {
+            bind(view);
+        }
+
         MediaResult getMediaResult() {
             return mediaResult;
         }
@@ -118,6 +184,12 @@ class ImageStreamItems {
                 icon.setImageResource(android.R.drawable.sym_def_app_icon);
             }
 
+            bindSelection(view);
+        }
+
+        @Override
+        void bindSelection(View view) {
+            final SelectableView holder = view.findViewById(R.id.list_item_file_holder);
             holder.setSelected(isSelected());
             holder.setSelectionListener(new SelectableView.SelectionListener() {
                 @Override
@@ -183,6 +255,12 @@ class ImageStreamItems {
                 });
             }
 
+            bindSelection(view);
+        }
+
+        @Override
+        void bindSelection(View view) {
+            final SelectableView container = view.findViewById(R.id.list_item_selectable);
             container.setSelected(isSelected());
             container.setSelectionListener(new SelectableView.SelectionListener() {
                 @Override
@@ -198,8 +276,8 @@ class ImageStreamItems {
         private final int iconId;
         private final View.OnClickListener onClickListener;
 
-        private StaticItem(int layoutId, int iconId, View.OnClickListener onClickListener) {
-            super(layoutId, null);
+        private StaticItem(long id, int layoutId, int iconId, View.OnClickListener onClickListener) {
+            super(id, layoutId, null);
             this.iconId = iconId;
             this.onClickListener = onClickListener;
         }
@@ -210,4 +288,16 @@ class ImageStreamItems {
             view.findViewById(R.id.list_item_static_click_area).setOnClickListener(onClickListener);
         }
     }
+
+    static class PlaceholderItem extends Item {
+
+        private PlaceholderItem(long id) {
+            super(id, LAYOUT_PLACEHOLDER, null);
+        }
+
+        @Override
+        public void bind(View view) {
+            // intentionally empty
+        }
+    }
 }
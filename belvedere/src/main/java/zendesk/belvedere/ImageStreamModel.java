@@ -2,18 +2,27 @@ package zendesk.belvedere;
 
 import android.content.Context;
 import android.content.Intent;
+import android.database.ContentObserver;
 import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
 
 import androidx.annotation.VisibleForTesting;
 
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 class ImageStreamModel implements ImageStreamMvp.Model {
 
-    private static final String GOOGLE_PHOTOS_PACKAGE_NAME = "com.google.android.apps.photos";
-    private static final int MAX_IMAGES = 500;
+    static final String GOOGLE_PHOTOS_PACKAGE_NAME = "com.google.android.apps.photos";
+    private static final int FIRST_PAGE_SIZE = 48;
+    private static final int PAGE_SIZE = 96;
+    private static final long OBSERVER_DELAY_MILLIS = 250L;
 
     private final ImageStreamService imageStreamService;
     private final List<MediaIntent> mediaIntents;
@@ -21,9 +30,17 @@ class ImageStreamModel implements ImageStreamMvp.Model {
     private final List<MediaResult> additionalMediaResults;
     private final long maxFileSize;
     private final boolean fullScreenOnly;
+    private final Executor executor;
+
+    private volatile ImageStreamCursorProvider.PageKey nextPageKey;
+    private volatile Set<Uri> userProvidedUris;
+    private volatile ImageStreamCursorProvider.Anchor anchor;
+
+    private ContentObserver imageObserver;
 
     ImageStreamModel(Context context, BelvedereUi.UiConfig startConfig) {
         this.imageStreamService = new ImageStreamService(context);
+        this.executor = Belvedere.from(context).getExecutor();
         this.mediaIntents = startConfig.getIntents();
         this.selectedMediaResults = startConfig.getSelectedItems();
         this.additionalMediaResults = startConfig.getExtraItems();
@@ -37,8 +54,10 @@ class ImageStreamModel implements ImageStreamMvp.Model {
                      List<MediaIntent> intents,
                      List<MediaResult> selectedMediaResults,
                      List<MediaResult> additionalMediaResults,
-                     boolean fullScreenOnly) {
+                     boolean fullScreenOnly,
+                     Executor executor) {
         this.imageStreamService = imageStreamService;
+        this.executor = executor;
         this.maxFileSize = maxFileSize;
         this.mediaIntents = intents;
         this.selectedMediaResults = selectedMediaResults;
@@ -47,10 +66,212 @@ class ImageStreamModel implements ImageStreamMvp.Model {
     }
 
     @Override
-    public List<MediaResult> getLatestImages() {
-        final List<MediaResult> mediaResults = imageStreamService.queryRecentImages(MAX_IMAGES);
+    public Cancelable loadLatestImages(final Callback<List<MediaResult>> snapshotCallback,
+                                       final Callback<List<MediaResult>> callback) {
+        // the selection keeps changing on the main thread
         final List<MediaResult> userProvidedResults = mergeMediaResultLists(additionalMediaResults, selectedMediaResults);
-        return mergeMediaResultLists(mediaResults, userProvidedResults);
+
+        final Cancelable loader = load(callback, new ImageLoader() {
+            @Override
+            public List<MediaResult> load(CancellationSignal cancellationSignal) {
+                return getLatestImages(userProvidedResults, snapshotCallback, cancellationSignal);
+            }
+        });
+
+        return new Cancelable() {
+            @Override
+            public void cancel() {
+                snapshotCallback.cancel();
+                loader.cancel();
+            }
+
+            @Override
+            public boolean isCanceled() {
+                return loader.isCanceled();
+            }
+        };
+    }
+
+    @Override
+    public boolean hasMoreImages() {
+        return nextPageKey != null;
+    }
+
+    @Override
+    public Cancelable loadMoreImages(final Callback<List<MediaResult>> callback) {
+        return load(callback, new ImageLoader() {
+            @Override
+            public List<MediaResult> load(CancellationSignal cancellationSignal) {
+                return getMoreImages(cancellationSignal);
+            }
+        });
+    }
+
+    @Override
+    public Cancelable loadNewImages(final Callback<List<MediaResult>> callback) {
+        return load(callback, new ImageLoader() {
+            @Override
+            public List<MediaResult> load(CancellationSignal cancellationSignal) {
+                return getNewImages(cancellationSignal);
+            }
+        });
+    }
+
+    @Override
+    public void startObservingImages(final Runnable listener) {
+        if (imageObserver != null) {
+            return;
+        }
+
+        // the MediaStore sends a burst of changes for every image, only the last one counts
+        final Handler handler = new Handler(Looper.getMainLooper());
+        final Runnable notifyListener = new Runnable() {
+            @Override
+            public void run() {
+                if (imageObserver != null) {
+                    listener.run();
+                }
+            }
+        };
+
+        imageObserver = new ContentObserver(handler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                handler.removeCallbacks(notifyListener);
+                handler.postDelayed(notifyListener, OBSERVER_DELAY_MILLIS);
+            }
+        };
+
+        imageStreamService.registerObserver(imageObserver);
+    }
+
+    @Override
+    public void stopObservingImages() {
+        if (imageObserver != null) {
+            imageStreamService.unregisterObserver(imageObserver);
+            imageObserver = null;
+        }
+    }
+
+    /**
+     * Load the first page of images, the user provided ones come first.
+     */
+    @VisibleForTesting
+    List<MediaResult> getLatestImages(CancellationSignal cancellationSignal) {
+        final List<MediaResult> userProvidedResults = mergeMediaResultLists(additionalMediaResults, selectedMediaResults);
+        return getLatestImages(userProvidedResults, null, cancellationSignal);
+    }
+
+    /**
+     * Load the next page of images, without the user provided ones that are already shown.
+     */
+    @VisibleForTesting
+    List<MediaResult> getMoreImages(CancellationSignal cancellationSignal) {
+        final ImageStreamCursorProvider.PageKey pageKey = nextPageKey;
+        if (pageKey == null) {
+            return new ArrayList<>();
+        }
+
+        final ImageStreamService.Page page = imageStreamService.queryImages(PAGE_SIZE, pageKey, cancellationSignal);
+        nextPageKey = page.getNextPageKey();
+
+        return withoutUserProvidedResults(page.getImages());
+    }
+
+    /**
+     * Load the images that were added after the top of the stream, without the user provided ones
+     * that are already shown.
+     */
+    @VisibleForTesting
+    List<MediaResult> getNewImages(CancellationSignal cancellationSignal) {
+        final ImageStreamCursorProvider.Anchor currentAnchor = anchor;
+        if (currentAnchor == null) {
+            return new ArrayList<>();
+        }
+
+        final ImageStreamService.Page page = imageStreamService.queryNewerImages(PAGE_SIZE, currentAnchor, cancellationSignal);
+        anchor = page.getAnchor();
+
+        return withoutUserProvidedResults(page.getImages());
+    }
+
+    /**
+     * The snapshot of the last first page is handed out right away. If the {@link android.provider.MediaStore}
+     * hasn't changed since, it's the first page, otherwise the first page is queried again.
+     */
+    private List<MediaResult> getLatestImages(List<MediaResult> userProvidedResults,
+                                              Callback<List<MediaResult>> snapshotCallback,
+                                              CancellationSignal cancellationSignal) {
+        final Set<Uri> uris = new HashSet<>(userProvidedResults.size());
+        for (MediaResult mediaResult : userProvidedResults) {
+            uris.add(mediaResult.getOriginalUri());
+        }
+
+        final ImageStreamSnapshot snapshot = imageStreamService.readSnapshot(FIRST_PAGE_SIZE);
+
+        ImageStreamService.Page page = null;
+        if (snapshot != null) {
+            if (imageStreamService.isSnapshotCurrent(snapshot)) {
+                L.d(Belvedere.LOG_TAG, "Image stream snapshot is current, skipping the query");
+                page = snapshot.getPage();
+
+            } else if (snapshotCallback != null) {
+                snapshotCallback.internalSuccess(mergeMediaResultLists(snapshot.getPage().getImages(), userProvidedResults));
+            }
+        }
+
+        if (page == null) {
+            page = imageStreamService.queryImages(FIRST_PAGE_SIZE, ImageStreamCursorProvider.PageKey.FIRST, cancellationSignal);
+        }
+
+        userProvidedUris = uris;
+        nextPageKey = page.getNextPageKey();
+        anchor = page.getAnchor();
+
+        return mergeMediaResultLists(page.getImages(), userProvidedResults);
+    }
+
+    private List<MediaResult> withoutUserProvidedResults(List<MediaResult> images) {
+        final List<MediaResult> mediaResults = new ArrayList<>(images.size());
+        for (MediaResult mediaResult : images) {
+            if (!userProvidedUris.contains(mediaResult.getOriginalUri())) {
+                mediaResults.add(mediaResult);
+            }
+        }
+
+        return mediaResults;
+    }
+
+    private Cancelable load(final Callback<List<MediaResult>> callback, final ImageLoader imageLoader) {
+        final CancellationSignal cancellationSignal = new CancellationSignal();
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (cancellationSignal.isCanceled()) {
+                    return;
+                }
+
+                try {
+                    callback.internalSuccess(imageLoader.load(cancellationSignal));
+                } catch (OperationCanceledException e) {
+                    L.d(Belvedere.LOG_TAG, "Loading the image stream was canceled");
+                }
+            }
+        });
+
+        return new Cancelable() {
+            @Override
+            public void cancel() {
+                cancellationSignal.cancel();
+                callback.cancel();
+            }
+
+            @Override
+            public boolean isCanceled() {
+                return cancellationSignal.isCanceled();
+            }
+        };
     }
 
     @Override
@@ -148,4 +369,8 @@ class ImageStreamModel implements ImageStreamMvp.Model {
         return null;
     }
 
+    private interface ImageLoader {
+
+        List<MediaResult> load(CancellationSignal cancellationSignal);
+    }
 }
@@ -8,7 +8,17 @@ interface ImageStreamMvp {
 
     interface Model {
 
-        List<MediaResult> getLatestImages();
+        Cancelable loadLatestImages(Callback<List<MediaResult>> snapshotCallback, Callback<List<MediaResult>> callback);
+
+        boolean hasMoreImages();
+
+        Cancelable loadMoreImages(Callback<List<MediaResult>> callback);
+
+        Cancelable loadNewImages(Callback<List<MediaResult>> callback);
+
+        void startObservingImages(Runnable listener);
+
+        void stopObservingImages();
 
         boolean hasCameraIntent();
 
@@ -38,7 +48,13 @@ interface ImageStreamMvp {
 
         void initViews(boolean fullScreenOnly);
 
-        void showImageStream(List<MediaResult> images, List<MediaResult> selectedImages, boolean fullScreenOnly, boolean showCamera, ImageStreamAdapter.Listener listener);
+        void showImageStream(boolean fullScreenOnly, boolean showCamera, ImageStreamAdapter.Listener listener);
+
+        void showImages(List<MediaResult> images, List<MediaResult> selectedImages);
+
+        void addImages(List<MediaResult> images, List<MediaResult> selectedImages);
+
+        void prependImages(List<MediaResult> images, List<MediaResult> selectedImages);
 
         void showDocumentMenuItem(OnClickListener onClickListener);
 
@@ -61,6 +77,8 @@ interface ImageStreamMvp {
 
         void onImageStreamScrolled(int height, int scrollArea, float scrollPosition);
 
+        void onImageStreamEndReached();
+
         void dismiss();
 
         void sendSelectedImages();
@@ -26,6 +26,9 @@ class ImageStreamPresenter implements ImageStreamMvp.Presenter {
     private final ImageStreamMvp.View view;
     private final ImageStream imageStreamBackend;
 
+    private Cancelable imageLoader;
+    private boolean newImagesPending;
+
     ImageStreamPresenter(ImageStreamMvp.Model model, ImageStreamMvp.View view, ImageStream imageStreamBackend) {
         this.model = model;
         this.view = view;
@@ -47,8 +50,34 @@ class ImageStreamPresenter implements ImageStreamMvp.Presenter {
         }
     }
 
+    @Override
+    public void onImageStreamEndReached() {
+        // only one page at a time, the first one included
+        if (imageLoader != null || !model.hasMoreImages()) {
+            return;
+        }
+
+        imageLoader = model.loadMoreImages(new Callback<List<MediaResult>>() {
+            @Override
+            public void success(List<MediaResult> images) {
+                imageLoader = null;
+                view.addImages(images, model.getSelectedMediaResults());
+                loadPendingNewImages();
+            }
+        });
+    }
+
     @Override
     public void dismiss() {
+        // Stop watching the MediaStore
+        model.stopObservingImages();
+
+        // Stop loading images
+        if (imageLoader != null) {
+            imageLoader.cancel();
+            imageLoader = null;
+        }
+
         // Null out references
         imageStreamBackend.setImageStreamUi(null, null);
 
@@ -153,6 +182,33 @@ class ImageStreamPresenter implements ImageStreamMvp.Presenter {
                 });
     }
 
+    /**
+     * Loads the images that were added to the {@link android.provider.MediaStore} while the stream
+     * is showing. Pages are loaded one at a time, so the new images wait for the current one.
+     */
+    private void loadNewImages() {
+        if (imageLoader != null) {
+            newImagesPending = true;
+            return;
+        }
+
+        newImagesPending = false;
+        imageLoader = model.loadNewImages(new Callback<List<MediaResult>>() {
+            @Override
+            public void success(List<MediaResult> images) {
+                imageLoader = null;
+                view.prependImages(images, model.getSelectedMediaResults());
+                loadPendingNewImages();
+            }
+        });
+    }
+
+    private void loadPendingNewImages() {
+        if (newImagesPending) {
+            loadNewImages();
+        }
+    }
+
     private void presentStream() {
 
         // Check if we can show the picker above the keyboard
@@ -161,14 +217,33 @@ class ImageStreamPresenter implements ImageStreamMvp.Presenter {
         // Init the ui
         view.initViews(fullScreenOnly);
 
-        // Load recent images
-        final List<MediaResult> latestImages = model.getLatestImages();
+        // Show the stream right away, the images follow once they are loaded
+        view.showImageStream(fullScreenOnly, model.hasCameraIntent(), imageStreamListener);
 
-        // Load selected images
-        final List<MediaResult> selectedImages = model.getSelectedMediaResults();
+        // Load recent images, the ones from last time are shown until they are loaded
+        imageLoader = model.loadLatestImages(new Callback<List<MediaResult>>() {
+            @Override
+            public void success(List<MediaResult> snapshotImages) {
+                view.showImages(snapshotImages, model.getSelectedMediaResults());
+            }
+        }, new Callback<List<MediaResult>>() {
+            @Override
+            public void success(List<MediaResult> latestImages) {
+                imageLoader = null;
 
-        // Populate image stream
-        view.showImageStream(latestImages, selectedImages, fullScreenOnly, model.hasCameraIntent(), imageStreamListener);
+                // Populate image stream
+                view.showImages(latestImages, model.getSelectedMediaResults());
+                loadPendingNewImages();
+            }
+        });
+
+        // Pick up images that are added while the stream is showing
+        model.startObservingImages(new Runnable() {
+            @Override
+            public void run() {
+                loadNewImages();
+            }
+        });
 
         // Notify observers
         imageStreamBackend.notifyVisible();
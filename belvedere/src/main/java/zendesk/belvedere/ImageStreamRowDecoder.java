@@ -0,0 +1,111 @@
+package zendesk.belvedere;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.text.TextUtils;
+
+/**
+ * Turns the rows of an image stream {@link Cursor} into {@link MediaResult}s.
+ * <p>
+ * The column indices are resolved once per {@link Cursor}, and all {@link Uri}s are
+ * built from a single base {@link Uri} instead of parsing a new one for every row.
+ * </p>
+ * <p>
+ * The mime type is taken from the {@link MediaStore}. The extension of the name isn't trusted, and
+ * nothing is read from the media while the {@link Cursor} is open, rows without a mime type are
+ * sniffed afterwards, see {@link #resolveMimeType(Context, MediaResult)}.
+ * </p>
+ */
+class ImageStreamRowDecoder {
+
+    private static final String DEFAULT_MIME_TYPE = "image/jpeg";
+
+    private final Cursor cursor;
+    private final Uri baseUri;
+
+    private final int idColumn;
+    private final int nameColumn;
+    private final int sizeColumn;
+    private final int widthColumn;
+    private final int heightColumn;
+    private final int mimeTypeColumn;
+    private final int orderColumn;
+
+    /**
+     * @param cursor      A {@link Cursor} with the {@link ImageStreamCursorProvider#PROJECTION}
+     * @param baseUri     The {@link Uri} the ids of the rows are appended to
+     * @param orderColumn The name of the column the rows are ordered by
+     */
+    ImageStreamRowDecoder(Cursor cursor, Uri baseUri, String orderColumn) {
+        this.cursor = cursor;
+        this.baseUri = baseUri;
+        this.idColumn = cursor.getColumnIndex(MediaStore.Images.ImageColumns._ID);
+        this.nameColumn = cursor.getColumnIndex(MediaStore.MediaColumns.DISPLAY_NAME);
+        this.sizeColumn = cursor.getColumnIndex(MediaStore.MediaColumns.SIZE);
+        this.widthColumn = cursor.getColumnIndex(MediaStore.MediaColumns.WIDTH);
+        this.heightColumn = cursor.getColumnIndex(MediaStore.MediaColumns.HEIGHT);
+        this.mimeTypeColumn = cursor.getColumnIndex(MediaStore.MediaColumns.MIME_TYPE);
+        this.orderColumn = cursor.getColumnIndex(orderColumn);
+    }
+
+    /**
+     * @return The {@code _id} of the current row
+     */
+    long getId() {
+        return cursor.getLong(idColumn);
+    }
+
+    /**
+     * @return The value of the order column of the current row, or {@code null} if it's missing
+     */
+    Long getOrderValue() {
+        return orderColumn != -1 && !cursor.isNull(orderColumn) ? cursor.getLong(orderColumn) : null;
+    }
+
+    /**
+     * @param id The {@code _id} of the current row, see {@link #getId()}
+     * @return A {@link MediaResult} that describes the current row
+     */
+    MediaResult getMediaResult(long id) {
+        final Uri uri = ContentUris.withAppendedId(baseUri, id);
+        final String name = cursor.getString(nameColumn);
+
+        return new MediaResult(null, uri, uri, name, getMimeType(),
+                getLong(sizeColumn), getLong(widthColumn), getLong(heightColumn));
+    }
+
+    /**
+     * Sniff the mime type of a row that has none, after the {@link Cursor} was read.
+     *
+     * @param context     A valid application {@link Context}
+     * @param mediaResult A {@link MediaResult} from {@link #getMediaResult(long)}
+     * @return The {@link MediaResult} with a mime type
+     */
+    static MediaResult resolveMimeType(Context context, MediaResult mediaResult) {
+        if (mediaResult.getMimeType() != null) {
+            return mediaResult;
+        }
+
+        final String sniffedMimeType = MimeTypeSniffer.sniff(context, mediaResult.getOriginalUri());
+        final String mimeType = sniffedMimeType != null ? sniffedMimeType : DEFAULT_MIME_TYPE;
+
+        return new MediaResult(mediaResult.getFile(), mediaResult.getUri(), mediaResult.getOriginalUri(),
+                mediaResult.getName(), mimeType, mediaResult.getSize(), mediaResult.getWidth(), mediaResult.getHeight());
+    }
+
+    private String getMimeType() {
+        if (mimeTypeColumn == -1 || cursor.isNull(mimeTypeColumn)) {
+            return null;
+        }
+
+        final String mimeType = cursor.getString(mimeTypeColumn);
+        return !TextUtils.isEmpty(mimeType) ? mimeType : null;
+    }
+
+    private long getLong(int column) {
+        return column != -1 ? cursor.getLong(column) : MediaResult.UNKNOWN_VALUE;
+    }
+}
@@ -1,13 +1,14 @@
 package zendesk.belvedere;
 
 import android.content.Context;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
+import android.os.CancellationSignal;
 import android.provider.MediaStore;
-import android.text.TextUtils;
-import android.webkit.MimeTypeMap;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -15,37 +16,133 @@ class ImageStreamService {
 
     private final Context context;
     private final ImageStreamCursorProvider imageStreamCursorProvider;
+    private final Uri filesUri;
+    private final File snapshotFile;
 
     ImageStreamService(Context context) {
         this.context = context.getApplicationContext();
         this.imageStreamCursorProvider = new ImageStreamCursorProvider(context, Build.VERSION.SDK_INT);
+        this.filesUri = MediaStore.Files.getContentUri("external");
+        this.snapshotFile = ImageStreamSnapshot.getFile(this.context.getCacheDir());
     }
 
-    List<MediaResult> queryRecentImages(int count) {
-        final List<MediaResult> mediaResults = new ArrayList<>();
+    /**
+     * Query a page of images from the {@link MediaStore}, most recent first.
+     * <p>
+     * The first page is kept as an {@link ImageStreamSnapshot}.
+     * </p>
+     *
+     * @param count              The maximum number of images
+     * @param pageKey            The {@link ImageStreamCursorProvider.PageKey} of the page
+     * @param cancellationSignal A {@link CancellationSignal} that aborts the query, or {@code null}
+     * @return The {@link Page} of images
+     * @throws android.os.OperationCanceledException if the query was canceled
+     */
+    Page queryImages(int count, ImageStreamCursorProvider.PageKey pageKey, CancellationSignal cancellationSignal) {
+        final boolean firstPage = pageKey == ImageStreamCursorProvider.PageKey.FIRST;
 
-        final Cursor cursor = imageStreamCursorProvider.getCursor(count);
+        // read before the query, a change in between shows up again instead of getting lost
+        final String mediaStoreVersion = firstPage ? imageStreamCursorProvider.getVersion() : null;
+        final long generation = firstPage ? imageStreamCursorProvider.getGeneration() : 0L;
+        final long latestId = firstPage ? imageStreamCursorProvider.getLatestId() : 0L;
+
+        final Rows rows = readRows(imageStreamCursorProvider.getCursor(count, pageKey, cancellationSignal), count, cancellationSignal);
+
+        // a short page is the last one
+        final ImageStreamCursorProvider.PageKey nextPageKey = rows.mediaResults.size() < count
+                ? null
+                : new ImageStreamCursorProvider.PageKey(rows.lastOrderValue, rows.lastId);
+
+        // only the first page knows the top of the stream
+        final ImageStreamCursorProvider.Anchor anchor = firstPage
+                ? new ImageStreamCursorProvider.Anchor(latestId, generation)
+                : null;
+
+        final Page page = new Page(rows.mediaResults, nextPageKey, anchor);
+
+        if (firstPage) {
+            new ImageStreamSnapshot(mediaStoreVersion, generation, count, page).write(snapshotFile);
+        }
+
+        return page;
+    }
+
+    /**
+     * Read the snapshot of the first page that was queried last.
+     *
+     * @param count The number of images that the first page needs
+     * @return The {@link ImageStreamSnapshot}, or {@code null} if there is none that fits
+     */
+    ImageStreamSnapshot readSnapshot(int count) {
+        final ImageStreamSnapshot snapshot = ImageStreamSnapshot.read(snapshotFile);
+        return snapshot != null && snapshot.getCount() == count ? snapshot : null;
+    }
+
+    /**
+     * @return {@code true} if the {@link MediaStore} hasn't changed since the snapshot was taken
+     */
+    boolean isSnapshotCurrent(ImageStreamSnapshot snapshot) {
+        return snapshot.isCurrent(imageStreamCursorProvider.getVersion(), imageStreamCursorProvider.getGeneration());
+    }
+
+    /**
+     * Query the images that were added to the {@link MediaStore} after the top of the stream,
+     * most recent first.
+     *
+     * @param count              The maximum number of images
+     * @param anchor             The {@link ImageStreamCursorProvider.Anchor} of the top of the stream
+     * @param cancellationSignal A {@link CancellationSignal} that aborts the query, or {@code null}
+     * @return The {@link Page} of images, with the {@link ImageStreamCursorProvider.Anchor} of the new top
+     * @throws android.os.OperationCanceledException if the query was canceled
+     */
+    Page queryNewerImages(int count, ImageStreamCursorProvider.Anchor anchor, CancellationSignal cancellationSignal) {
+        // read before the query, a change in between shows up again instead of getting lost
+        final long generation = imageStreamCursorProvider.getGeneration();
+        final long latestId = imageStreamCursorProvider.getLatestId();
+
+        final Rows rows = readRows(imageStreamCursorProvider.getNewerCursor(count, anchor, cancellationSignal), count, cancellationSignal);
+
+        final ImageStreamCursorProvider.Anchor newAnchor =
+                new ImageStreamCursorProvider.Anchor(Math.max(anchor.getId(), latestId), generation);
+
+        return new Page(rows.mediaResults, null, newAnchor);
+    }
+
+    /**
+     * Get notified about changes to the images in the {@link MediaStore}.
+     */
+    void registerObserver(ContentObserver contentObserver) {
+        context.getContentResolver().registerContentObserver(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, true, contentObserver);
+    }
+
+    void unregisterObserver(ContentObserver contentObserver) {
+        context.getContentResolver().unregisterContentObserver(contentObserver);
+    }
+
+    boolean isAppAvailable(String packageName) {
+        return Belvedere.from(context).getCapabilities().isAppAvailable(packageName);
+    }
+
+    private Rows readRows(Cursor cursor, int count, CancellationSignal cancellationSignal) {
+        final Rows rows = new Rows(count);
 
         try {
             if (cursor != null) {
-                while (cursor.moveToNext()) {
-                    final Uri uri = MediaStore.Files.getContentUri("external",
-                            cursor.getLong(cursor.getColumnIndex(MediaStore.Images.ImageColumns._ID)));
-
-                    final long size = cursor.getLong(cursor.getColumnIndex(MediaStore.MediaColumns.SIZE));
-                    final long width = cursor.getLong(cursor.getColumnIndex(MediaStore.MediaColumns.WIDTH));
-                    final long height = cursor.getLong(cursor.getColumnIndex(MediaStore.MediaColumns.HEIGHT));
-                    final String name = cursor.getString(cursor.getColumnIndex(MediaStore.MediaColumns.DISPLAY_NAME));
-
-                    String mimeType = "image/jpeg";
-                    if (!TextUtils.isEmpty(name)) {
-                        final int index = name.lastIndexOf(".");
-                        if (index != -1) {
-                            mimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(name.substring(index + 1));
-                        }
+                final ImageStreamRowDecoder rowDecoder =
+                        new ImageStreamRowDecoder(cursor, filesUri, imageStreamCursorProvider.getOrderColumn());
+
+                // some providers ignore the limit
+                while (rows.mediaResults.size() < count && cursor.moveToNext()) {
+                    if (cancellationSignal != null) {
+                        cancellationSignal.throwIfCanceled();
                     }
 
-                    mediaResults.add(new MediaResult(null, uri, uri, name, mimeType, size, width, height));
+                    final long id = rowDecoder.getId();
+                    final Long orderValue = rowDecoder.getOrderValue();
+                    rows.mediaResults.add(rowDecoder.getMediaResult(id));
+
+                    rows.lastId = id;
+                    rows.lastOrderValue = orderValue;
                 }
             }
         } finally {
@@ -54,10 +151,65 @@ class ImageStreamService {
             }
         }
 
-        return mediaResults;
+        // rows without a mime type are sniffed, after the cursor is closed
+        for (int i = 0; i < rows.mediaResults.size(); i++) {
+            if (rows.mediaResults.get(i).getMimeType() == null) {
+                if (cancellationSignal != null) {
+                    cancellationSignal.throwIfCanceled();
+                }
+
+                rows.mediaResults.set(i, ImageStreamRowDecoder.resolveMimeType(context, rows.mediaResults.get(i)));
+            }
+        }
+
+        return rows;
     }
 
-    boolean isAppAvailable(String packageName) {
-        return Utils.isAppAvailable(packageName, context);
+    /**
+     * The decoded rows of a cursor and the key of its last row.
+     */
+    private static class Rows {
+
+        private final List<MediaResult> mediaResults;
+        private Long lastOrderValue;
+        private long lastId;
+
+        private Rows(int count) {
+            this.mediaResults = new ArrayList<>(count);
+        }
+    }
+
+    /**
+     * A page of images from the {@link MediaStore}.
+     */
+    static class Page {
+
+        private final List<MediaResult> images;
+        private final ImageStreamCursorProvider.PageKey nextPageKey;
+        private final ImageStreamCursorProvider.Anchor anchor;
+
+        Page(List<MediaResult> images, ImageStreamCursorProvider.PageKey nextPageKey, ImageStreamCursorProvider.Anchor anchor) {
+            this.images = images;
+            this.nextPageKey = nextPageKey;
+            this.anchor = anchor;
+        }
+
+        List<MediaResult> getImages() {
+            return images;
+        }
+
+        /**
+         * @return The key of the next page, or {@code null} if this is the last page
+         */
+        ImageStreamCursorProvider.PageKey getNextPageKey() {
+            return nextPageKey;
+        }
+
+        /**
+         * @return The top of the stream after this page, or {@code null} if this page isn't at the top
+         */
+        ImageStreamCursorProvider.Anchor getAnchor() {
+            return anchor;
+        }
     }
 }
@@ -0,0 +1,240 @@
+package zendesk.belvedere;
+
+import android.net.Uri;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The first page of the image stream as it was last queried, together with the state of the
+ * {@link android.provider.MediaStore} at that time.
+ * <p>
+ * It's kept on disk so that the next image stream renders right away instead of waiting for
+ * the query. The file lives next to, not inside, the Belvedere cache, so it's never shared
+ * through the {@link BelvedereFileProvider}.
+ * </p>
+ */
+class ImageStreamSnapshot {
+
+    private static final String FILE_NAME = "belvedere-image-stream.snapshot";
+    private static final int FORMAT_VERSION = 3;
+
+    // two streams might finish loading at the same time, they share the temporary file
+    private static final Object WRITE_LOCK = new Object();
+
+    private final String mediaStoreVersion;
+    private final long generation;
+    private final int count;
+    private final ImageStreamService.Page page;
+
+    /**
+     * @param mediaStoreVersion The version of the {@link android.provider.MediaStore}, or {@code null}
+     * @param generation        The generation of the {@link android.provider.MediaStore}, 0 if it's unknown
+     * @param count             The number of images that were requested for the page
+     * @param page              The first {@link ImageStreamService.Page}
+     */
+    ImageStreamSnapshot(String mediaStoreVersion, long generation, int count, ImageStreamService.Page page) {
+        this.mediaStoreVersion = mediaStoreVersion;
+        this.generation = generation;
+        this.count = count;
+        this.page = page;
+    }
+
+    /**
+     * Get the file that holds the snapshot.
+     *
+     * @param cacheDir The cache directory of the app
+     */
+    static File getFile(File cacheDir) {
+        return new File(cacheDir, FILE_NAME);
+    }
+
+    /**
+     * Read a snapshot.
+     *
+     * @param file The file of the snapshot
+     * @return The {@link ImageStreamSnapshot}, or {@code null} if there is none or it can't be read
+     */
+    static ImageStreamSnapshot read(File file) {
+        DataInputStream inputStream = null;
+        try {
+            inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            if (inputStream.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+
+            final String mediaStoreVersion = readString(inputStream);
+            final long generation = inputStream.readLong();
+            final int count = inputStream.readInt();
+
+            final ImageStreamCursorProvider.Anchor anchor = new ImageStreamCursorProvider.Anchor(
+                    inputStream.readLong(), inputStream.readLong());
+
+            ImageStreamCursorProvider.PageKey nextPageKey = null;
+            if (inputStream.readBoolean()) {
+                final Long orderValue = inputStream.readBoolean() ? inputStream.readLong() : null;
+                nextPageKey = new ImageStreamCursorProvider.PageKey(orderValue, inputStream.readLong());
+            }
+
+            final int size = inputStream.readInt();
+            final List<MediaResult> images = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                final Uri uri = Uri.parse(inputStream.readUTF());
+                final String name = readString(inputStream);
+                final String mimeType = readString(inputStream);
+                final long imageSize = inputStream.readLong();
+                final long width = inputStream.readLong();
+                final long height = inputStream.readLong();
+                images.add(new MediaResult(null, uri, uri, name, mimeType, imageSize, width, height));
+            }
+
+            return new ImageStreamSnapshot(mediaStoreVersion, generation, count,
+                    new ImageStreamService.Page(images, nextPageKey, anchor));
+
+        } catch (FileNotFoundException e) {
+            return null;
+
+        } catch (IOException e) {
+            L.w(Belvedere.LOG_TAG, String.format(Locale.US, "Unable to read image stream snapshot: %s", file));
+            return null;
+
+        } finally {
+            close(inputStream);
+        }
+    }
+
+    /**
+     * Write the snapshot. The file is replaced at once, so a reader never sees half of it.
+     *
+     * @param file The file of the snapshot
+     */
+    void write(File file) {
+        synchronized (WRITE_LOCK) {
+            writeLocked(file);
+        }
+    }
+
+    private void writeLocked(File file) {
+        final File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+
+        DataOutputStream outputStream = null;
+        try {
+            outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+
+            outputStream.writeInt(FORMAT_VERSION);
+            writeString(outputStream, mediaStoreVersion);
+            outputStream.writeLong(generation);
+            outputStream.writeInt(count);
+
+            final ImageStreamCursorProvider.Anchor anchor = page.getAnchor();
+            outputStream.writeLong(anchor.getId());
+            outputStream.writeLong(anchor.getGeneration());
+
+            final ImageStreamCursorProvider.PageKey nextPageKey = page.getNextPageKey();
+            outputStream.writeBoolean(nextPageKey != null);
+            if (nextPageKey != null) {
+                final Long orderValue = nextPageKey.getOrderValue();
+                outputStream.writeBoolean(orderValue != null);
+                if (orderValue != null) {
+                    outputStream.writeLong(orderValue);
+                }
+                outputStream.writeLong(nextPageKey.getId());
+            }
+
+            final List<MediaResult> images = page.getImages();
+            outputStream.writeInt(images.size());
+            for (MediaResult image : images) {
+                outputStream.writeUTF(image.getOriginalUri().toString());
+                writeString(outputStream, image.getName());
+                writeString(outputStream, image.getMimeType());
+                outputStream.writeLong(image.getSize());
+                outputStream.writeLong(image.getWidth());
+                outputStream.writeLong(image.getHeight());
+            }
+
+            outputStream.close();
+            outputStream = null;
+
+            if (!tmpFile.renameTo(file)) {
+                L.w(Belvedere.LOG_TAG, String.format(Locale.US, "Unable to replace image stream snapshot: %s", file));
+                delete(tmpFile);
+            }
+
+        } catch (IOException e) {
+            L.w(Belvedere.LOG_TAG, String.format(Locale.US, "Unable to write image stream snapshot: %s", file));
+            close(outputStream);
+            outputStream = null;
+            delete(tmpFile);
+
+        } finally {
+            close(outputStream);
+        }
+    }
+
+    /**
+     * A snapshot can only be trusted without a query if the {@link android.provider.MediaStore}
+     * hasn't changed at all since it was taken. That's only known from Android R, where every
+     * change bumps the generation.
+     *
+     * @param mediaStoreVersion The current version of the {@link android.provider.MediaStore}
+     * @param generation        The current generation of the {@link android.provider.MediaStore}
+     * @return {@code true} if the snapshot is still up to date
+     */
+    boolean isCurrent(String mediaStoreVersion, long generation) {
+        return this.generation > 0L
+                && this.generation == generation
+                && this.mediaStoreVersion != null
+                && this.mediaStoreVersion.equals(mediaStoreVersion);
+    }
+
+    /**
+     * @return The number of images that were requested for the page
+     */
+    int getCount() {
+        return count;
+    }
+
+    ImageStreamService.Page getPage() {
+        return page;
+    }
+
+    private static String readString(DataInputStream inputStream) throws IOException {
+        return inputStream.readBoolean() ? inputStream.readUTF() : null;
+    }
+
+    private static void writeString(DataOutputStream outputStream, String value) throws IOException {
+        outputStream.writeBoolean(value != null);
+        if (value != null) {
+            outputStream.writeUTF(value);
+        }
+    }
+
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private static void delete(File file) {
+        if (file.exists()) {
+            file.delete();
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // intentionally empty
+            }
+        }
+    }
+}
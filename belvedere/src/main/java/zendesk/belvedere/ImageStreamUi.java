@@ -42,6 +42,9 @@ import static android.view.ViewGroup.LayoutParams.MATCH_PARENT;
 
 class ImageStreamUi extends PopupWindow implements ImageStreamMvp.View {
 
+    private static final int PLACEHOLDER_ROWS = 3;
+    private static final int PREFETCH_ROWS = 6;
+
     static ImageStreamUi show(Activity activity, final ViewGroup parent, ImageStream popupBackend, BelvedereUi.UiConfig config) {
         final View v = LayoutInflater.from(activity).inflate(R.layout.belvedere_image_stream, parent, false);
         final ImageStreamUi attachmentPicker = new ImageStreamUi(activity, v, popupBackend, config);
@@ -54,6 +57,7 @@ class ImageStreamUi extends PopupWindow implements ImageStreamMvp.View {
     private final List<Integer> touchableItemIds;
 
     private KeyboardHelper keyboardHelper;
+    private ImageStreamAdapter.Listener imageStreamListener;
 
     private View bottomSheet, dismissArea, toolbarContainer, toolbarCompatShadow;
     private FloatingActionMenu floatingActionMenu;
@@ -72,7 +76,7 @@ class ImageStreamUi extends PopupWindow implements ImageStreamMvp.View {
         bindViews(view);
 
         this.activity = activity;
-        this.adapter = new ImageStreamAdapter();
+        this.adapter = new ImageStreamAdapter(Belvedere.from(activity).getExecutor());
         this.keyboardHelper = imageStreamBackend.getKeyboardHelper();
         this.touchableItemIds = uiConfig.getTouchableElements();
 
@@ -92,8 +96,9 @@ class ImageStreamUi extends PopupWindow implements ImageStreamMvp.View {
     }
 
     @Override
-    public void showImageStream(List<MediaResult> images, List<MediaResult> selectedImages,
-                                boolean fullScreenOnly, boolean showCamera, ImageStreamAdapter.Listener listener) {
+    public void showImageStream(boolean fullScreenOnly, boolean showCamera, ImageStreamAdapter.Listener listener) {
+        this.imageStreamListener = listener;
+
         if (!fullScreenOnly) {
             KeyboardHelper.showKeyboard(keyboardHelper.getInputTrap());
         }
@@ -107,14 +112,37 @@ class ImageStreamUi extends PopupWindow implements ImageStreamMvp.View {
             adapter.addStaticItem(ImageStreamItems.forCameraSquare(listener));
         }
 
-        // Add recent images
-        adapter.initializeWithImages(ImageStreamItems.fromMediaResults(images, listener, bottomSheet.getContext()));
+        // Add placeholders until the images are loaded
+        final int columns = bottomSheet.getContext().getResources().getInteger(R.integer.belvedere_image_stream_column_count);
+        adapter.initializeWithImages(ImageStreamItems.placeholders(columns * PLACEHOLDER_ROWS));
+    }
+
+    @Override
+    public void showImages(List<MediaResult> images, List<MediaResult> selectedImages) {
+        if (!isShowing()) {
+            return;
+        }
+
+        // Add recent images, the selected ones marked
+        adapter.initializeWithImages(ImageStreamItems.fromMediaResults(images, imageStreamListener, bottomSheet.getContext()), selectedImages);
+    }
+
+    @Override
+    public void addImages(List<MediaResult> images, List<MediaResult> selectedImages) {
+        if (!isShowing() || images.isEmpty()) {
+            return;
+        }
+
+        adapter.appendImages(ImageStreamItems.fromMediaResults(images, imageStreamListener, bottomSheet.getContext()), selectedImages);
+    }
 
-        // Mark selected images
-        adapter.setItemsSelected(selectedImages);
+    @Override
+    public void prependImages(List<MediaResult> images, List<MediaResult> selectedImages) {
+        if (!isShowing() || images.isEmpty()) {
+            return;
+        }
 
-        // Reload RecyclerView
-        adapter.notifyDataSetChanged();
+        adapter.prependImages(ImageStreamItems.fromMediaResults(images, imageStreamListener, bottomSheet.getContext()), selectedImages);
     }
 
     @Override
@@ -239,7 +267,7 @@ class ImageStreamUi extends PopupWindow implements ImageStreamMvp.View {
         }
     }
 
-    private void initRecycler(ImageStreamAdapter adapter) {
+    private void initRecycler(final ImageStreamAdapter adapter) {
         final int columns = bottomSheet.getContext().getResources().getInteger(R.integer.belvedere_image_stream_column_count);
         final StaggeredGridLayoutManager staggeredGridLayoutManager =
                 new StaggeredGridLayoutManager(columns, StaggeredGridLayoutManager.VERTICAL);
@@ -254,6 +282,24 @@ class ImageStreamUi extends PopupWindow implements ImageStreamMvp.View {
         imageList.setItemAnimator(defaultItemAnimator);
 
         imageList.setAdapter(adapter);
+        imageList.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                // dy is 0 after a layout, e.g. if the first page doesn't fill the screen
+                if (dy < 0) {
+                    return;
+                }
+
+                int lastVisiblePosition = RecyclerView.NO_POSITION;
+                for (int position : staggeredGridLayoutManager.findLastVisibleItemPositions(null)) {
+                    lastVisiblePosition = Math.max(lastVisiblePosition, position);
+                }
+
+                if (lastVisiblePosition >= adapter.getItemCount() - columns * PREFETCH_ROWS) {
+                    presenter.onImageStreamEndReached();
+                }
+            }
+        });
     }
 
     private void initBottomSheet(boolean fullScreenOnly) {
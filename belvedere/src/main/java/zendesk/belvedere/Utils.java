@@ -8,7 +8,6 @@ import android.content.DialogInterface;
 import android.content.DialogInterface.OnCancelListener;
 import android.content.DialogInterface.OnDismissListener;
 import android.content.Intent;
-import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapShader;
@@ -133,21 +132,6 @@ class Utils {
         imageView.invalidate();
     }
 
-    /**
-     * Checks whether an app is installed and enabled.
-     *
-     * @param packageName The package name of an app.
-     * @param context     The context.
-     * @return true if app is installed and enabled, false otherwise.
-     */
-    static boolean isAppAvailable(String packageName, Context context) {
-        try {
-            return context.getPackageManager().getApplicationInfo(packageName, PackageManager.GET_META_DATA).enabled;
-        } catch (PackageManager.NameNotFoundException e) {
-            return false;
-        }
-    }
-
     static Transformation roundTransformation(Context context, int radiusResId) {
         final int radius = context.getResources().getDimensionPixelOffset(radiusResId);
         return new RoundedTransformation(radius, 0);
@@ -0,0 +1,69 @@
+@file:Suppress("IllegalIdentifier")
+
+package zendesk.belvedere
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+
+class ImageHeaderTest {
+
+    @Test
+    fun `jpeg - dimensions are read from the frame header`() {
+        val header = ImageHeader.parse(ByteArrayInputStream(jpeg(null, 400, 300)))
+
+        assertThat(header).isNotNull()
+        assertThat(header!!.width).isEqualTo(400)
+        assertThat(header.height).isEqualTo(300)
+        assertThat(header.rotation).isEqualTo(0)
+    }
+
+    @Test
+    fun `jpeg - rotated image keeps its encoded dimensions and reports the rotation`() {
+        val header = ImageHeader.parse(ByteArrayInputStream(jpeg(6, 400, 300)))
+
+        assertThat(header).isNotNull()
+        assertThat(header!!.width).isEqualTo(400)
+        assertThat(header.height).isEqualTo(300)
+        assertThat(header.rotation).isEqualTo(90)
+    }
+
+    @Test
+    fun `jpeg - upside down image reports a rotation of 180 degrees`() {
+        val header = ImageHeader.parse(ByteArrayInputStream(jpeg(3, 400, 300)))
+
+        assertThat(header!!.rotation).isEqualTo(180)
+    }
+
+    private fun jpeg(orientation: Int?, width: Int, height: Int): ByteArray {
+        val out = ByteArrayOutputStream()
+        out.write(byteArrayOf(0xFF.toByte(), 0xD8.toByte()))
+
+        if (orientation != null) {
+            // "Exif\0\0", little endian TIFF header, one IFD entry with the orientation
+            val exif = byteArrayOf(
+                    'E'.toByte(), 'x'.toByte(), 'i'.toByte(), 'f'.toByte(), 0, 0,
+                    'I'.toByte(), 'I'.toByte(), 0x2A, 0, 8, 0, 0, 0,
+                    1, 0,
+                    0x12, 0x01, 3, 0, 1, 0, 0, 0, orientation.toByte(), 0, 0, 0,
+                    0, 0, 0, 0)
+            out.write(byteArrayOf(0xFF.toByte(), 0xE1.toByte()))
+            out.write(u16(exif.size + 2))
+            out.write(exif)
+        }
+
+        // baseline frame header with 3 components
+        out.write(byteArrayOf(0xFF.toByte(), 0xC0.toByte()))
+        out.write(u16(17))
+        out.write(8)
+        out.write(u16(height))
+        out.write(u16(width))
+        out.write(ByteArray(10))
+
+        out.write(byteArrayOf(0xFF.toByte(), 0xD9.toByte()))
+        return out.toByteArray()
+    }
+
+    private fun u16(value: Int) = byteArrayOf((value shr 8).toByte(), value.toByte())
+}
@@ -31,7 +31,7 @@ class ImageStreamCursorProviderTests {
 
     @Test
     fun `projection array has the expected parameters`() {
-        assertThat(ImageStreamCursorProvider.PROJECTION).hasLength(5)
+        assertThat(ImageStreamCursorProvider.PROJECTION).hasLength(6)
 
         assertThat(ImageStreamCursorProvider.PROJECTION[0])
                 .isEqualTo(MediaStore.Images.ImageColumns._ID)
@@ -47,6 +47,9 @@ class ImageStreamCursorProviderTests {
 
         assertThat(ImageStreamCursorProvider.PROJECTION[4])
                 .isEqualTo(MediaStore.MediaColumns.HEIGHT)
+
+        assertThat(ImageStreamCursorProvider.PROJECTION[5])
+                .isEqualTo(MediaStore.MediaColumns.MIME_TYPE)
     }
 
     @Test
@@ -67,10 +70,18 @@ class ImageStreamCursorProviderTests {
         assertThat(cursorProvider.orderColumn).isEqualTo(MediaStore.Images.ImageColumns.DATE_TAKEN)
     }
 
+    @Test
+    fun `media store version and generation are unknown for android N (API 24)`() {
+        cursorProvider = ImageStreamCursorProvider(context, 24)
+
+        assertThat(cursorProvider.version).isNull()
+        assertThat(cursorProvider.generation).isEqualTo(0L)
+    }
+
     @Test
     fun `content provider is queried with a bundle for android 0 (API 26)`() {
         cursorProvider = ImageStreamCursorProvider(context, 26)
-        cursorProvider.getCursor(5)
+        cursorProvider.getCursor(5, ImageStreamCursorProvider.PageKey.FIRST, null)
 
         verify(context.contentResolver, times(1)).query(
                 any(),
@@ -82,23 +93,67 @@ class ImageStreamCursorProviderTests {
     @Test
     fun `content provider is queried without a bundle for android N (API 24 and 25)`() {
         cursorProvider = ImageStreamCursorProvider(context, 24)
-        cursorProvider.getCursor(11)
+        cursorProvider.getCursor(11, ImageStreamCursorProvider.PageKey.FIRST, null)
 
         verify(context.contentResolver, times(1)).query(
                 any(),
                 any(Array<String>::class.java),
                 eq(null),
                 eq(null),
-                eq("date_modified DESC LIMIT 11"))
+                eq("date_modified DESC, _id DESC LIMIT 11"),
+                eq(null))
 
         cursorProvider = ImageStreamCursorProvider(context, 25)
-        cursorProvider.getCursor(9)
+        cursorProvider.getCursor(9, ImageStreamCursorProvider.PageKey.FIRST, null)
 
         verify(context.contentResolver, times(1)).query(
                 any(),
                 any(Array<String>::class.java),
                 eq(null),
                 eq(null),
-                eq("date_modified DESC LIMIT 9"))
+                eq("date_modified DESC, _id DESC LIMIT 9"),
+                eq(null))
+    }
+
+    @Test
+    fun `next page is selected after the last row of the previous page`() {
+        cursorProvider = ImageStreamCursorProvider(context, 24)
+        cursorProvider.getCursor(10, ImageStreamCursorProvider.PageKey(100L, 7L), null)
+
+        verify(context.contentResolver, times(1)).query(
+                any(),
+                any(Array<String>::class.java),
+                eq("date_modified < ? OR (date_modified = ? AND _id < ?) OR date_modified IS NULL"),
+                eq(arrayOf("100", "100", "7")),
+                eq("date_modified DESC, _id DESC LIMIT 10"),
+                eq(null))
+    }
+
+    @Test
+    fun `next page after a row without order value only has rows without order value`() {
+        cursorProvider = ImageStreamCursorProvider(context, 24)
+        cursorProvider.getCursor(10, ImageStreamCursorProvider.PageKey(null, 7L), null)
+
+        verify(context.contentResolver, times(1)).query(
+                any(),
+                any(Array<String>::class.java),
+                eq("date_modified IS NULL AND _id < ?"),
+                eq(arrayOf("7")),
+                eq("date_modified DESC, _id DESC LIMIT 10"),
+                eq(null))
+    }
+
+    @Test
+    fun `newer images are selected by _id before android R`() {
+        cursorProvider = ImageStreamCursorProvider(context, 24)
+        cursorProvider.getNewerCursor(10, ImageStreamCursorProvider.Anchor(7L, 0L), null)
+
+        verify(context.contentResolver, times(1)).query(
+                any(),
+                any(Array<String>::class.java),
+                eq("_id > ?"),
+                eq(arrayOf("7")),
+                eq("date_modified DESC, _id DESC LIMIT 10"),
+                eq(null))
     }
 }
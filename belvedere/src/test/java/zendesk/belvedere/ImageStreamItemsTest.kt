@@ -0,0 +1,48 @@
+@file:Suppress("IllegalIdentifier")
+
+package zendesk.belvedere
+
+import android.net.Uri
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mockito.*
+import org.mockito.junit.MockitoJUnitRunner
+
+
+@RunWith(MockitoJUnitRunner::class)
+class ImageStreamItemsTest : TestHelper {
+
+    @Test
+    fun `stable id - media store row`() {
+        val uri = mock(Uri::class.java)
+        `when`(uri.authority).thenReturn("media")
+        `when`(uri.pathSegments).thenReturn(listOf("external", "file", "42"))
+
+        assertThat(ImageStreamItems.getStableId(mediaResult(uri = uri))).isEqualTo(42L)
+    }
+
+    @Test
+    fun `stable id - other uri, same for every query`() {
+        val uri = mock(Uri::class.java)
+        `when`(uri.authority).thenReturn("com.example.provider")
+        `when`(uri.toString()).thenReturn("content://com.example.provider/images/42")
+
+        val id = ImageStreamItems.getStableId(mediaResult(uri = uri))
+
+        assertThat(id).isLessThan(0L)
+        assertThat(ImageStreamItems.getStableId(mediaResult(uri = uri))).isEqualTo(id)
+    }
+
+    @Test
+    fun `stable id - item keeps the id of its media`() {
+        val uri = mock(Uri::class.java)
+        `when`(uri.authority).thenReturn("media")
+        `when`(uri.pathSegments).thenReturn(listOf("external", "file", "7"))
+
+        val first = ImageStreamItems.StreamItemImage(mock(ImageStreamAdapter.Listener::class.java), mediaResult(uri = uri))
+        val second = ImageStreamItems.StreamItemImage(mock(ImageStreamAdapter.Listener::class.java), mediaResult(uri = uri))
+
+        assertThat(first.id).isEqualTo(second.id)
+    }
+}
@@ -12,6 +12,7 @@ import org.junit.runner.RunWith
 import org.mockito.Mock
 import org.mockito.Mockito.*
 import org.mockito.junit.MockitoJUnitRunner
+import java.util.concurrent.Executor
 
 
 @RunWith(MockitoJUnitRunner::class)
@@ -33,7 +34,7 @@ class ImageStreamModelTest : TestHelper {
 
     @Before
     fun setup() {
-        model = ImageStreamModel(service, maxFileSize, mediaIntent, selectedItems, additionalItems, fullScreen)
+        model = ImageStreamModel(service, maxFileSize, mediaIntent, selectedItems, additionalItems, fullScreen, Executor { it.run() })
     }
 
     @After
@@ -49,9 +50,9 @@ class ImageStreamModelTest : TestHelper {
         additionalItems.addAll(listOf(mediaResult(), mediaResult()))
 
         val imagesFromSystem = listOf(mediaResult(), mediaResult())
-        `when`(service.queryRecentImages(anyInt())).thenReturn(imagesFromSystem)
+        `when`(service.queryImages(anyInt(), any(), any())).thenReturn(ImageStreamService.Page(imagesFromSystem, null, ImageStreamCursorProvider.Anchor.NONE))
 
-        val images = model.latestImages
+        val images = model.getLatestImages(null)
         assertThat(images).hasSize(6)
 
         // ensure order
@@ -72,9 +73,9 @@ class ImageStreamModelTest : TestHelper {
         additionalItems.addAll(listOf(mediaResult(uri = uri1), mediaResult(uri = uri2)))
 
         val imagesFromSystem = listOf(mediaResult(), mediaResult())
-        `when`(service.queryRecentImages(anyInt())).thenReturn(imagesFromSystem)
+        `when`(service.queryImages(anyInt(), any(), any())).thenReturn(ImageStreamService.Page(imagesFromSystem, null, ImageStreamCursorProvider.Anchor.NONE))
 
-        val images = model.latestImages
+        val images = model.getLatestImages(null)
         assertThat(images).hasSize(4)
 
         // ensure order
@@ -87,12 +88,99 @@ class ImageStreamModelTest : TestHelper {
     @Test
     fun `get images - 0 files available`() {
         val imagesFromSystem = listOf<MediaResult>()
-        `when`(service.queryRecentImages(anyInt())).thenReturn(imagesFromSystem)
+        `when`(service.queryImages(anyInt(), any(), any())).thenReturn(ImageStreamService.Page(imagesFromSystem, null, ImageStreamCursorProvider.Anchor.NONE))
 
-        val images = model.latestImages
+        val images = model.getLatestImages(null)
         assertThat(images).hasSize(0)
     }
 
+    @Test
+    fun `get more images - next page without user provided files`() {
+        val uri = mock(Uri::class.java)
+        selectedItems.add(mediaResult(uri = uri))
+
+        val nextPageKey = ImageStreamCursorProvider.PageKey(10L, 2L)
+        val firstPage = listOf(mediaResult(), mediaResult())
+        `when`(service.queryImages(anyInt(), eq(ImageStreamCursorProvider.PageKey.FIRST), any()))
+                .thenReturn(ImageStreamService.Page(firstPage, nextPageKey, ImageStreamCursorProvider.Anchor.NONE))
+
+        model.getLatestImages(null)
+        assertThat(model.hasMoreImages()).isTrue()
+
+        val secondPage = listOf(mediaResult(uri = uri), mediaResult())
+        `when`(service.queryImages(anyInt(), eq(nextPageKey), any()))
+                .thenReturn(ImageStreamService.Page(secondPage, null, null))
+
+        val images = model.getMoreImages(null)
+        assertThat(images).containsExactly(secondPage[1])
+        assertThat(model.hasMoreImages()).isFalse()
+    }
+
+    @Test
+    fun `get images - current snapshot, skip the query`() {
+        val imagesFromSnapshot = listOf(mediaResult(), mediaResult())
+        val snapshot = ImageStreamSnapshot("version", 5L, 48,
+                ImageStreamService.Page(imagesFromSnapshot, null, ImageStreamCursorProvider.Anchor.NONE))
+        `when`(service.readSnapshot(anyInt())).thenReturn(snapshot)
+        `when`(service.isSnapshotCurrent(snapshot)).thenReturn(true)
+
+        val images = model.getLatestImages(null)
+
+        assertThat(images).isEqualTo(imagesFromSnapshot)
+        verify(service, never()).queryImages(anyInt(), any(), any())
+    }
+
+    @Test
+    @Suppress("UNCHECKED_CAST")
+    fun `get images - outdated snapshot, show it and query again`() {
+        val imagesFromSnapshot = listOf(mediaResult())
+        val snapshot = ImageStreamSnapshot("version", 5L, 48,
+                ImageStreamService.Page(imagesFromSnapshot, null, ImageStreamCursorProvider.Anchor.NONE))
+        `when`(service.readSnapshot(anyInt())).thenReturn(snapshot)
+        `when`(service.isSnapshotCurrent(snapshot)).thenReturn(false)
+
+        val imagesFromSystem = listOf(mediaResult(), mediaResult())
+        `when`(service.queryImages(anyInt(), any(), any()))
+                .thenReturn(ImageStreamService.Page(imagesFromSystem, null, ImageStreamCursorProvider.Anchor.NONE))
+
+        val snapshotCallback = mock(Callback::class.java) as Callback<List<MediaResult>>
+        val callback = mock(Callback::class.java) as Callback<List<MediaResult>>
+        model.loadLatestImages(snapshotCallback, callback)
+
+        verify(snapshotCallback, times(1)).internalSuccess(eq(imagesFromSnapshot))
+        verify(callback, times(1)).internalSuccess(eq(imagesFromSystem))
+    }
+
+    @Test
+    fun `get new images - newer than the top of the stream`() {
+        val uri = mock(Uri::class.java)
+        selectedItems.add(mediaResult(uri = uri))
+
+        val anchor = ImageStreamCursorProvider.Anchor(2L, 5L)
+        `when`(service.queryImages(anyInt(), any(), any()))
+                .thenReturn(ImageStreamService.Page(listOf(mediaResult()), null, anchor))
+
+        model.getLatestImages(null)
+
+        val newAnchor = ImageStreamCursorProvider.Anchor(4L, 7L)
+        val newImages = listOf(mediaResult(), mediaResult(uri = uri))
+        `when`(service.queryNewerImages(anyInt(), eq(anchor), any()))
+                .thenReturn(ImageStreamService.Page(newImages, null, newAnchor))
+
+        assertThat(model.getNewImages(null)).containsExactly(newImages[0])
+
+        `when`(service.queryNewerImages(anyInt(), eq(newAnchor), any()))
+                .thenReturn(ImageStreamService.Page(listOf(), null, newAnchor))
+
+        assertThat(model.getNewImages(null)).isEmpty()
+    }
+
+    @Test
+    fun `get new images - nothing before the first page`() {
+        assertThat(model.getNewImages(null)).isEmpty()
+        verify(service, never()).queryNewerImages(anyInt(), any(), any())
+    }
+
     @Test
     fun `get max file size`() {
         assertThat(model.maxFileSize).isEqualTo(maxFileSize)
@@ -81,7 +81,6 @@ class ImageStreamPresenterTest : TestHelper {
         val latestImages = listOf(mediaResult(), mediaResult())
         val selectedImages = listOf(latestImages[0])
 
-        `when`(model.latestImages).thenReturn(latestImages)
         `when`(model.selectedMediaResults).thenReturn(selectedImages)
         `when`(model.hasCameraIntent()).thenReturn(true)
         `when`(model.showFullScreenOnly()).thenReturn(true)
@@ -89,8 +88,13 @@ class ImageStreamPresenterTest : TestHelper {
         presenter.init()
 
         verify(view, times(1)).initViews(eq(true))
-        verify(view, times(1)).showImageStream(eq(latestImages), eq(selectedImages), eq(true), eq(true), any())
+        verify(view, times(1)).showImageStream(eq(true), eq(true), any())
+        verify(view, never()).showImages(anyList(), anyList())
         verify(imageStreamBackend, times(1)).notifyVisible()
+
+        imageLoaderCallback().success(latestImages)
+
+        verify(view, times(1)).showImages(eq(latestImages), eq(selectedImages))
     }
 
     @Test
@@ -168,6 +172,47 @@ class ImageStreamPresenterTest : TestHelper {
         verify(view, times(1)).showToast(anyInt())
     }
 
+    @Test
+    fun `init presenter - stream - show snapshot until loaded`() {
+        val snapshotImages = listOf(mediaResult())
+        val selectedImages = listOf<MediaResult>()
+        `when`(model.selectedMediaResults).thenReturn(selectedImages)
+
+        presenter.init()
+
+        @Suppress("UNCHECKED_CAST")
+        val captor = ArgumentCaptor.forClass(Callback::class.java) as ArgumentCaptor<Callback<List<MediaResult>>>
+        verify(model, times(1)).loadLatestImages(captor.capture(), any())
+        captor.value.success(snapshotImages)
+
+        verify(view, times(1)).showImages(eq(snapshotImages), eq(selectedImages))
+    }
+
+    @Test
+    fun `new images - wait for the first page, then prepend`() {
+        val latestImages = listOf(mediaResult())
+        val newImages = listOf(mediaResult())
+        `when`(model.selectedMediaResults).thenReturn(listOf())
+        `when`(model.loadLatestImages(any(), any())).thenReturn(mock(Cancelable::class.java))
+
+        presenter.init()
+
+        val observerCaptor = ArgumentCaptor.forClass(Runnable::class.java)
+        verify(model, times(1)).startObservingImages(observerCaptor.capture())
+        observerCaptor.value.run()
+
+        verify(model, never()).loadNewImages(any())
+
+        imageLoaderCallback().success(latestImages)
+
+        @Suppress("UNCHECKED_CAST")
+        val captor = ArgumentCaptor.forClass(Callback::class.java) as ArgumentCaptor<Callback<List<MediaResult>>>
+        verify(model, times(1)).loadNewImages(captor.capture())
+        captor.value.success(newImages)
+
+        verify(view, times(1)).prependImages(eq(newImages), eq(listOf()))
+    }
+
     @Test
     fun `dismiss stream`() {
         presenter.dismiss()
@@ -175,6 +220,18 @@ class ImageStreamPresenterTest : TestHelper {
         verify(imageStreamBackend, times(1)).setImageStreamUi(eq(null), eq(null))
         verify(imageStreamBackend, times(1)).notifyScrollListener(eq(0), eq(0), eq(0F))
         verify(imageStreamBackend, times(1)).notifyDismissed()
+        verify(model, times(1)).stopObservingImages()
+    }
+
+    @Test
+    fun `dismiss stream - cancel loading images`() {
+        val imageLoader = mock(Cancelable::class.java)
+        `when`(model.loadLatestImages(any(), any())).thenReturn(imageLoader)
+
+        presenter.init()
+        presenter.dismiss()
+
+        verify(imageLoader, times(1)).cancel()
     }
 
     @Test
@@ -194,7 +251,14 @@ class ImageStreamPresenterTest : TestHelper {
     private fun listener(): ImageStreamAdapter.Listener {
         val captor = ArgumentCaptor.forClass(ImageStreamAdapter.Listener::class.java)
         presenter.init()
-        verify(view, times(1)).showImageStream(anyList(), anyList(), anyBoolean(), anyBoolean(), captor.capture())
+        verify(view, times(1)).showImageStream(anyBoolean(), anyBoolean(), captor.capture())
+        return captor.value
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun imageLoaderCallback(): Callback<List<MediaResult>> {
+        val captor = ArgumentCaptor.forClass(Callback::class.java) as ArgumentCaptor<Callback<List<MediaResult>>>
+        verify(model, times(1)).loadLatestImages(any(), captor.capture())
         return captor.value
     }
 
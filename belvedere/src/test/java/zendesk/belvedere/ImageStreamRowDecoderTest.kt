@@ -0,0 +1,81 @@
+@file:Suppress("IllegalIdentifier")
+
+package zendesk.belvedere
+
+import android.database.Cursor
+import android.net.Uri
+import android.provider.MediaStore
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mock
+import org.mockito.Mockito.*
+import org.mockito.junit.MockitoJUnitRunner
+
+
+@RunWith(MockitoJUnitRunner::class)
+class ImageStreamRowDecoderTest {
+
+    private val columns = listOf(
+            MediaStore.Images.ImageColumns._ID,
+            MediaStore.MediaColumns.DISPLAY_NAME,
+            MediaStore.MediaColumns.SIZE,
+            MediaStore.MediaColumns.WIDTH,
+            MediaStore.MediaColumns.HEIGHT,
+            MediaStore.MediaColumns.MIME_TYPE,
+            MediaStore.Images.ImageColumns.DATE_MODIFIED)
+
+    @Mock
+    private lateinit var cursor: Cursor
+
+    @Before
+    fun setup() {
+        `when`(cursor.getColumnIndex(anyString())).thenAnswer { columns.indexOf(it.arguments[0]) }
+    }
+
+    @Test
+    fun `decode 500 rows - column indices are resolved once`() {
+        `when`(cursor.getString(columns.indexOf(MediaStore.MediaColumns.DISPLAY_NAME))).thenReturn("image.jpg")
+        `when`(cursor.getString(columns.indexOf(MediaStore.MediaColumns.MIME_TYPE))).thenReturn("image/jpeg")
+
+        val rowDecoder = ImageStreamRowDecoder(cursor, Uri.parse("content://media/external/file"),
+                MediaStore.Images.ImageColumns.DATE_MODIFIED)
+
+        repeat(500) {
+            rowDecoder.getMediaResult(rowDecoder.getId())
+            rowDecoder.orderValue
+        }
+
+        verify(cursor, times(columns.size)).getColumnIndex(anyString())
+        verify(cursor, times(500)).getString(columns.indexOf(MediaStore.MediaColumns.DISPLAY_NAME))
+        verify(cursor, times(500)).getString(columns.indexOf(MediaStore.MediaColumns.MIME_TYPE))
+    }
+
+    @Test
+    fun `decode row - mime type is read from the cursor`() {
+        `when`(cursor.getString(columns.indexOf(MediaStore.MediaColumns.DISPLAY_NAME))).thenReturn("image.jpg")
+        `when`(cursor.getString(columns.indexOf(MediaStore.MediaColumns.MIME_TYPE))).thenReturn("image/heic")
+        `when`(cursor.getLong(columns.indexOf(MediaStore.MediaColumns.SIZE))).thenReturn(42L)
+
+        val rowDecoder = ImageStreamRowDecoder(cursor, Uri.parse("content://media/external/file"),
+                MediaStore.Images.ImageColumns.DATE_MODIFIED)
+
+        val mediaResult = rowDecoder.getMediaResult(1L)
+
+        assertThat(mediaResult.mimeType).isEqualTo("image/heic")
+        assertThat(mediaResult.name).isEqualTo("image.jpg")
+        assertThat(mediaResult.size).isEqualTo(42L)
+    }
+
+    @Test
+    fun `decode row - unknown mime type is left for later`() {
+        `when`(cursor.getString(columns.indexOf(MediaStore.MediaColumns.DISPLAY_NAME))).thenReturn("image.jpg")
+        `when`(cursor.isNull(columns.indexOf(MediaStore.MediaColumns.MIME_TYPE))).thenReturn(true)
+
+        val rowDecoder = ImageStreamRowDecoder(cursor, Uri.parse("content://media/external/file"),
+                MediaStore.Images.ImageColumns.DATE_MODIFIED)
+
+        assertThat(rowDecoder.getMediaResult(1L).mimeType).isNull()
+    }
+}
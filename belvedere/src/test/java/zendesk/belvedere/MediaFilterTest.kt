@@ -0,0 +1,38 @@
+@file:Suppress("IllegalIdentifier")
+
+package zendesk.belvedere
+
+import android.net.Uri
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+
+class MediaFilterTest {
+
+    private val filter = MediaFilter(100L, emptyList())
+
+    @Test
+    fun `files above the max file size are rejected`() {
+        assertThat(filter.accepts(mediaResult(101L))).isFalse()
+        assertThat(filter.accepts(mediaResult(100L))).isTrue()
+    }
+
+    @Test
+    fun `files with an unknown size pass until their size is known`() {
+        assertThat(filter.accepts(mediaResult(MediaResult.UNKNOWN_VALUE))).isTrue()
+        assertThat(filter.limitsSize()).isTrue()
+        assertThat(filter.acceptsSize(101L)).isFalse()
+    }
+
+    @Test
+    fun `no max file size accepts every size`() {
+        val filter = MediaFilter(MediaResult.UNKNOWN_VALUE, emptyList())
+
+        assertThat(filter.limitsSize()).isFalse()
+        assertThat(filter.accepts(mediaResult(Long.MAX_VALUE))).isTrue()
+    }
+
+    private fun mediaResult(size: Long): MediaResult {
+        val uri = Uri.parse("content://provider/file")
+        return MediaResult(null, uri, uri, "file", "image/jpeg", size, 1, 1)
+    }
+}